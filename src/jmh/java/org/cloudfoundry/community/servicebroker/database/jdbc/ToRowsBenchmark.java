@@ -0,0 +1,60 @@
+package org.cloudfoundry.community.servicebroker.database.jdbc;
+
+import org.h2.tools.SimpleResultSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts a synthetic result set, shaped like a row of the service instance registry, to the maps returned by
+ * {@link QueryExecutor#select}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ToRowsBenchmark {
+
+    private static final String[] COLUMNS = {
+            "id", "service_definition_id", "plan_id", "org_id", "space_id", "last_operation_state", "last_operation_description"
+    };
+
+    @Param({"1", "100", "10000"})
+    private int rows;
+
+    private SimpleResultSet resultSet;
+
+    @Setup
+    public void createResultSet() {
+        resultSet = new SimpleResultSet();
+        resultSet.setAutoClose(false);
+        for (String column : COLUMNS) {
+            resultSet.addColumn(column, Types.VARCHAR, 1024, 0);
+        }
+        for (int i = 0; i < rows; i++) {
+            Object[] row = new Object[COLUMNS.length];
+            for (int column = 0; column < row.length; column++) {
+                row[column] = new UUID(i, column).toString();
+            }
+            resultSet.addRow(row);
+        }
+    }
+
+    @Benchmark
+    public List<Map<String, String>> toRows() throws SQLException {
+        resultSet.beforeFirst();
+        return QuerySession.toRows(resultSet);
+    }
+
+}
@@ -0,0 +1,80 @@
+package org.cloudfoundry.community.servicebroker.database.repository;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.cloudfoundry.community.servicebroker.database.jdbc.QueryExecutor;
+import org.cloudfoundry.community.servicebroker.database.metrics.MetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up a row shaped like one of the service instance registry, by a query built by concatenation and by a
+ * parameterized query, with and without the prepared statement cache and server-side preparation of the Postgres
+ * profile. The lookups bypass the registry cache. Both settings only apply to Postgres, so the benchmark needs a
+ * Postgres server, whose jdbc url is read from the JMH_POSTGRES_URL environment variable, which forked JVMs inherit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+public class RegistryLookupBenchmark {
+
+    private static final String TABLE = "jmh_registry_lookup";
+
+    @Param({"true", "false"})
+    private boolean statementCache;
+
+    private final String instanceId = new UUID(2, 1).toString();
+    private DataSource dataSource;
+    private QueryExecutor queryExecutor;
+
+    @Setup
+    public void createTable() {
+        String url = System.getenv("JMH_POSTGRES_URL");
+        if (url == null) {
+            throw new IllegalStateException("set JMH_POSTGRES_URL to the jdbc url of a Postgres server");
+        }
+        PoolProperties poolProperties = new PoolProperties();
+        poolProperties.setUrl(url);
+        poolProperties.setDriverClassName("org.postgresql.Driver");
+        poolProperties.setMaxActive(8);
+        if (statementCache) {
+            poolProperties.setJdbcInterceptors("StatementCache(prepared=true,callable=false,max=50)");
+            poolProperties.setConnectionProperties("prepareThreshold=1");
+        }
+        dataSource = new DataSource(poolProperties);
+        queryExecutor = new QueryExecutor(dataSource, 1000, new MetricsRegistry());
+        queryExecutor.update("CREATE TABLE IF NOT EXISTS " + TABLE + " (id varchar(255) PRIMARY KEY, service_definition_id varchar(255), plan_id varchar(255), org_id varchar(255), space_id varchar(255))");
+        queryExecutor.update("INSERT INTO " + TABLE + " VALUES (?, '', '', '', '') ON CONFLICT DO NOTHING", instanceId);
+    }
+
+    @TearDown
+    public void dropTable() {
+        queryExecutor.update("DROP TABLE " + TABLE);
+        dataSource.close();
+    }
+
+    @Benchmark
+    public List<Map<String, String>> concatenated() {
+        return queryExecutor.select("SELECT * FROM " + TABLE + " WHERE id = '" + instanceId + "'");
+    }
+
+    @Benchmark
+    public List<Map<String, String>> parameterized() {
+        return queryExecutor.select("SELECT * FROM " + TABLE + " WHERE id = ?", instanceId);
+    }
+
+}
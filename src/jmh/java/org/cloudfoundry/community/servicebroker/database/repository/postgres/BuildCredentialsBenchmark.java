@@ -0,0 +1,31 @@
+package org.cloudfoundry.community.servicebroker.database.repository.postgres;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the credentials returned by a bind call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BuildCredentialsBenchmark {
+
+    private final String databaseName = new UUID(1, 1).toString();
+    private final String userName = new UUID(1, 2).toString();
+    private final String password = "3o9rkd6dpvfh0c6n6a3jqkrbq0";
+
+    @Benchmark
+    public Map<String, Object> buildCredentials() {
+        return PostgresDatabaseRepository.buildCredentials("postgres.example.com", 5432, databaseName, userName, password);
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of binding password generation with the {@link CredentialGenerator} to that of the
+ * single SecureRandom bean it replaced, as the number of concurrently binding threads grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PasswordGenerationBenchmark {
+
+    private final Random sharedRandom = new SecureRandom();
+    private final CredentialGenerator credentialGenerator = new CredentialGenerator(CredentialGenerator.DEFAULT_ALPHABET, 26, "SHA1PRNG", 0);
+
+    @Benchmark
+    @Threads(1)
+    public String sharedSecureRandom_1() {
+        return new BigInteger(130, sharedRandom).toString(32);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String sharedSecureRandom_4() {
+        return new BigInteger(130, sharedRandom).toString(32);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String sharedSecureRandom_16() {
+        return new BigInteger(130, sharedRandom).toString(32);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String credentialGenerator_1() {
+        return credentialGenerator.generatePassword();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String credentialGenerator_4() {
+        return credentialGenerator.generatePassword();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String credentialGenerator_16() {
+        return credentialGenerator.generatePassword();
+    }
+
+}
@@ -16,42 +16,25 @@
 package org.cloudfoundry.community.servicebroker.database;
 
 import org.cloudfoundry.community.servicebroker.config.ServiceBrokerAutoConfiguration;
-import org.cloudfoundry.community.servicebroker.controller.CatalogController;
-import org.cloudfoundry.community.servicebroker.controller.ServiceInstanceBindingController;
-import org.cloudfoundry.community.servicebroker.controller.ServiceInstanceController;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.SpringBootConfiguration;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
-import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.FilterType;
-
-import java.security.SecureRandom;
-import java.util.Random;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootConfiguration
 @EnableAutoConfiguration(exclude = ServiceBrokerAutoConfiguration.class)
 @ComponentScan(
-        basePackages = "org.cloudfoundry.community.servicebroker",
-        excludeFilters = {
-                @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE, value = {
-                        ServiceBrokerAutoConfiguration.class,
-                        CatalogController.class,
-                        ServiceInstanceBindingController.class,
-                        ServiceInstanceController.class,
-                })
-        }
+        basePackageClasses = ServiceBrokerAutoConfiguration.class, //the library's configuration only, its controllers are replaced by the broker's
+        excludeFilters = @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE, value = ServiceBrokerAutoConfiguration.class)
 )
 @ComponentScan(basePackageClasses = Application.class)
+@EnableScheduling
 public class Application {
 
     public static void main(String[] args) {
         SpringApplication.run(Application.class, args);
     }
 
-    @Bean
-    Random random() {
-        return new SecureRandom();
-    }
-
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package org.cloudfoundry.community.servicebroker.database.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.repository.Consts;
+import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Validates the applied migrations of the broker's schema against those on the classpath once the broker is ready,
+ * in the fast-start profile, which migrates with flyway.validate-on-migrate disabled. A mismatch is logged as an
+ * error rather than preventing the start, as the broker already serves requests by then.
+ */
+@Component
+@Profile(Consts.FAST_START)
+@Slf4j
+public class FlywayValidation {
+
+    private final ObjectProvider<Flyway> flyway;
+
+    public FlywayValidation(ObjectProvider<Flyway> flyway) {
+        this.flyway = flyway;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void validateInBackground() {
+        Flyway flyway = this.flyway.getIfAvailable();
+        if (flyway == null) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            log.info("validating migrations of the broker schema");
+            try {
+                flyway.validate();
+                log.info("validated migrations of the broker schema");
+            } catch (RuntimeException e) {
+                log.error("migrations of the broker schema are invalid", e);
+            }
+        }, "flyway-validation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+}
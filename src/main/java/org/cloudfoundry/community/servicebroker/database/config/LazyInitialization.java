@@ -0,0 +1,62 @@
+package org.cloudfoundry.community.servicebroker.database.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.Application;
+import org.cloudfoundry.community.servicebroker.database.metrics.MetricsRegistry;
+import org.cloudfoundry.community.servicebroker.database.repository.Consts;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Initializes the broker's own components on first use rather than before the port opens, in the fast-start
+ * profile. Components with scheduled methods are created once the broker is ready, so that their background
+ * work still runs, only later. Beans of the auto-configuration, such as the datasource and Flyway, stay eager, as do
+ * the metrics components, whose constructors register gauges that nothing else would create.
+ */
+@Component
+@Profile(Consts.FAST_START)
+@Slf4j
+public class LazyInitialization implements BeanFactoryPostProcessor {
+
+    private static final String PACKAGE_PREFIX = Application.class.getPackage().getName() + ".";
+    private static final String METRICS_PACKAGE_PREFIX = MetricsRegistry.class.getPackage().getName() + ".";
+
+    private final List<String> scheduledBeans = new ArrayList<>();
+    private ConfigurableListableBeanFactory beanFactory;
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+        this.beanFactory = beanFactory;
+        int lazy = 0;
+        for (String beanName : beanFactory.getBeanDefinitionNames()) {
+            BeanDefinition definition = beanFactory.getBeanDefinition(beanName);
+            if (definition instanceof AnnotatedBeanDefinition && definition.getBeanClassName() != null
+                    && definition.getBeanClassName().startsWith(PACKAGE_PREFIX)
+                    && !definition.getBeanClassName().startsWith(METRICS_PACKAGE_PREFIX)) {
+                definition.setLazyInit(true);
+                lazy++;
+                if (((AnnotatedBeanDefinition) definition).getMetadata().hasAnnotatedMethods(Scheduled.class.getName())) {
+                    scheduledBeans.add(beanName);
+                }
+            }
+        }
+        log.info("initializing {} components on first use and {} scheduled components once ready", lazy, scheduledBeans.size());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void initializeScheduledBeans() {
+        scheduledBeans.forEach(beanFactory::getBean);
+        log.info("initialized scheduled components {}", scheduledBeans);
+    }
+
+}
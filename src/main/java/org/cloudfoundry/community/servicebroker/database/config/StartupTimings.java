@@ -0,0 +1,53 @@
+package org.cloudfoundry.community.servicebroker.database.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerInitializedEvent;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.boot.context.event.ApplicationPreparedEvent;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Logs the time since the JVM started at which each phase of the startup is reached, from the start of
+ * SpringApplication to the broker being ready. Registered in META-INF/spring.factories rather than as a bean,
+ * so that it receives the events published before the context exists.
+ */
+@Slf4j
+public class StartupTimings implements ApplicationListener<ApplicationEvent> {
+
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private long previousUptime;
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ApplicationStartedEvent) {
+            reached("starting");
+        } else if (event instanceof ApplicationEnvironmentPreparedEvent) {
+            reached("environment_prepared");
+        } else if (event instanceof ApplicationPreparedEvent) {
+            reached("context_prepared");
+        } else if (event instanceof ContextRefreshedEvent) {
+            reached("context_refreshed");
+        } else if (event instanceof EmbeddedServletContainerInitializedEvent) {
+            reached("port_opened");
+        } else if (event instanceof ApplicationReadyEvent) {
+            reached("ready");
+            log.info("startup phases reached, in milliseconds since the JVM started - {}", phases);
+        }
+    }
+
+    private synchronized void reached(String phase) {
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        log.info("startup phase {} reached after {}ms, {}ms after the previous phase", phase, uptime, uptime - previousUptime);
+        phases.put(phase, uptime);
+        previousUptime = uptime;
+    }
+
+}
@@ -1,7 +1,9 @@
 package org.cloudfoundry.community.servicebroker.database.config;
 
+import org.cloudfoundry.community.servicebroker.database.repository.Consts;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 import springfox.documentation.builders.ApiInfoBuilder;
 import springfox.documentation.builders.PathSelectors;
 import springfox.documentation.builders.RequestHandlerSelectors;
@@ -12,6 +14,7 @@ import springfox.documentation.swagger2.annotations.EnableSwagger2;
 
 
 @Configuration
+@Profile("!" + Consts.FAST_START)
 @EnableSwagger2
 public class SwaggerConfig {
 
@@ -0,0 +1,39 @@
+package org.cloudfoundry.community.servicebroker.database.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.AbstractProtocol;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs each request on its own virtual thread rather than on Tomcat's pool of platform threads, when
+ * database.virtual-threads is true. A request blocked on JDBC then parks its virtual thread only, so slow DDL
+ * cannot exhaust the connector's threads. Concurrency is still bounded by the connector's maxConnections
+ * and by the datasource's maxActive.
+ */
+@Configuration
+@ConditionalOnProperty(name = "database.virtual-threads", havingValue = "true")
+@Slf4j
+public class VirtualThreadConfig {
+
+    @Bean
+    public EmbeddedServletContainerCustomizer virtualThreadConnectorCustomizer() {
+        ThreadFactory threadFactory = VirtualThreads.factory("http-virtual-");
+        return container -> {
+            if (container instanceof TomcatEmbeddedServletContainerFactory) {
+                ((TomcatEmbeddedServletContainerFactory) container).addConnectorCustomizers(connector -> {
+                    if (connector.getProtocolHandler() instanceof AbstractProtocol) {
+                        ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(task -> threadFactory.newThread(task).start());
+                        log.info("running requests of connector {} on virtual threads", connector);
+                    }
+                });
+            }
+        };
+    }
+
+}
@@ -1,10 +1,13 @@
 package org.cloudfoundry.community.servicebroker.database.config;
 
+import org.cloudfoundry.community.servicebroker.database.repository.Consts;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
 
 @Configuration
+@Profile("!" + Consts.FAST_START)
 public class WebConfig extends WebMvcConfigurerAdapter {
 
     @Override
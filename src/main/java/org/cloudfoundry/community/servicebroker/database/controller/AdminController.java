@@ -0,0 +1,106 @@
+package org.cloudfoundry.community.servicebroker.database.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.service.BulkProvisioningService;
+import org.cloudfoundry.community.servicebroker.database.service.ServiceInstanceSpec;
+import org.cloudfoundry.community.servicebroker.database.service.TombstoneService;
+import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceExistsException;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.ServiceInstance;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Operator endpoints, outside of the service broker API. They are protected by the broker credentials.
+ */
+@RestController
+@Slf4j
+public class AdminController {
+
+    public static final String BASE_PATH = "/admin";
+    static final MediaType NDJSON = MediaType.valueOf("application/x-ndjson");
+
+    private final BulkProvisioningService bulkProvisioningService;
+    private final TombstoneService tombstoneService;
+    private final ObjectMapper objectMapper;
+    private final int maxInstances;
+
+    public AdminController(BulkProvisioningService bulkProvisioningService, TombstoneService tombstoneService, ObjectMapper objectMapper,
+                           @Value("${database.bulk.max-instances:1000}") int maxInstances) {
+        this.bulkProvisioningService = bulkProvisioningService;
+        this.tombstoneService = tombstoneService;
+        this.objectMapper = objectMapper;
+        this.maxInstances = maxInstances;
+    }
+
+    /**
+     * Provisions the given instances, streaming one JSON result per line as each instance is provisioned.
+     */
+    @RequestMapping(value = BASE_PATH + "/service_instances", method = RequestMethod.POST)
+    public ResponseEntity<StreamingResponseBody> provision(@RequestBody List<ServiceInstanceSpec> specs) {
+        if (specs.size() > maxInstances) {
+            return ResponseEntity.badRequest().body(output -> output.write(
+                    ("at most " + maxInstances + " instances may be provisioned at once\n").getBytes()));
+        }
+        List<CreateServiceInstanceRequest> requests;
+        try {
+            requests = specs.stream().map(ServiceInstanceSpec::toRequest).collect(Collectors.toList());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(output -> output.write(("invalid service instance id - " + e.getMessage() + "\n").getBytes()));
+        }
+        return ResponseEntity.ok().contentType(NDJSON).body(output -> {
+            try {
+                bulkProvisioningService.provision(requests, result -> {
+                    try {
+                        output.write(objectMapper.writeValueAsBytes(result));
+                        output.write('\n');
+                        output.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("bulk provisioning interrupted");
+            }
+        });
+    }
+
+    /**
+     * Restores an instance deprovisioned within the undo window of tombstones, along with its database.
+     */
+    @RequestMapping(value = BASE_PATH + "/service_instances/{instanceId}/restore", method = RequestMethod.POST)
+    public ResponseEntity<?> restore(@PathVariable String instanceId) {
+        UUID id;
+        try {
+            id = UUID.fromString(instanceId);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("invalid service instance id - " + instanceId + "\n");
+        }
+        try {
+            Optional<ServiceInstance> restored = tombstoneService.restore(id);
+            return restored.isPresent()
+                    ? ResponseEntity.ok(restored.get())
+                    : ResponseEntity.status(HttpStatus.NOT_FOUND).body("no tombstone of service instance " + instanceId + "\n");
+        } catch (ServiceInstanceExistsException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("service instance " + instanceId + " exists\n");
+        }
+    }
+
+}
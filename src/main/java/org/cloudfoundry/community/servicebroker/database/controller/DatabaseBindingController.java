@@ -2,12 +2,15 @@ package org.cloudfoundry.community.servicebroker.database.controller;
 
 import lombok.extern.slf4j.Slf4j;
 import org.cloudfoundry.community.servicebroker.controller.ServiceInstanceBindingController;
+import org.cloudfoundry.community.servicebroker.database.repository.routing.AdmissionRejectedException;
 import org.cloudfoundry.community.servicebroker.model.ErrorMessage;
 import org.cloudfoundry.community.servicebroker.service.ServiceInstanceBindingService;
 import org.cloudfoundry.community.servicebroker.service.ServiceInstanceService;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 
 /**
  * Created by taitz.
@@ -26,4 +29,12 @@ public class DatabaseBindingController extends ServiceInstanceBindingController
         return super.getErrorResponse(message, status);
     }
 
+    @ExceptionHandler(AdmissionRejectedException.class)
+    public ResponseEntity<ErrorMessage> handleException(AdmissionRejectedException ex) {
+        log.warn(ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(new ErrorMessage(ex.getMessage()));
+    }
+
 }
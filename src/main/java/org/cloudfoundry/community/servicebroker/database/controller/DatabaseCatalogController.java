@@ -1,22 +1,109 @@
 package org.cloudfoundry.community.servicebroker.database.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
 import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.controller.BaseController;
 import org.cloudfoundry.community.servicebroker.controller.CatalogController;
 import org.cloudfoundry.community.servicebroker.model.ErrorMessage;
 import org.cloudfoundry.community.servicebroker.service.CatalogService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * Created by taitz.
+ * Serves the catalog from bytes rendered when the application context is refreshed, rather than serializing it
+ * on every poll of the Cloud Controller. The response carries a strong ETag, so that a poll with a matching
+ * If-None-Match header is answered with 304 Not Modified, and is gzipped for clients that accept it,
+ * unless catalog.gzip is false. The time to the first catalog request, by which the Cloud Controller sees the
+ * broker as started, is logged.
  */
 @Slf4j
 @Controller
-public class DatabaseCatalogController extends CatalogController {
+public class DatabaseCatalogController extends BaseController {
+
+    private final CatalogService service;
+    private final ObjectMapper objectMapper;
+    private final boolean gzip;
+    private final AtomicBoolean served = new AtomicBoolean();
+    private volatile RenderedCatalog renderedCatalog;
+
+    public DatabaseCatalogController(CatalogService service,
+                                     ObjectMapper objectMapper,
+                                     @Value("${catalog.gzip:true}") boolean gzip) {
+        this.service = service;
+        this.objectMapper = objectMapper;
+        this.gzip = gzip;
+        render();
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void render() {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(service.getCatalog());
+            String etag = "\"" + Hashing.sha256().hashBytes(json).toString().substring(0, 32) + "\"";
+            renderedCatalog = new RenderedCatalog(json, gzip ? gzip(json) : null, etag);
+            log.info("rendered catalog of {} bytes with etag {}", json.length, etag);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("unable to render catalog", e);
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
 
-    public DatabaseCatalogController(CatalogService service) {
-        super(service);
+    @RequestMapping(value = CatalogController.BASE_PATH, method = RequestMethod.GET)
+    public ResponseEntity<byte[]> getCatalog(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                             @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        if (!served.getAndSet(true)) {
+            log.info("serving first catalog request {}ms after the JVM started", ManagementFactory.getRuntimeMXBean().getUptime());
+        }
+        RenderedCatalog catalog = renderedCatalog;
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(catalog.etag);
+        headers.setCacheControl("no-cache");
+        if (gzip) {
+            headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (ifNoneMatch != null && matches(ifNoneMatch, catalog.etag)) {
+            return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+        }
+        headers.setContentType(MediaType.APPLICATION_JSON_UTF8);
+        if (catalog.gzipped != null && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+            return new ResponseEntity<>(catalog.gzipped, headers, HttpStatus.OK);
+        }
+        return new ResponseEntity<>(catalog.json, headers, HttpStatus.OK);
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        return Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                .anyMatch(tag -> tag.equals("*") || tag.equals(etag));
     }
 
     @Override
@@ -25,4 +112,18 @@ public class DatabaseCatalogController extends CatalogController {
         return super.getErrorResponse(message, status);
     }
 
+    private static final class RenderedCatalog {
+
+        private final byte[] json;
+        private final byte[] gzipped;
+        private final String etag;
+
+        private RenderedCatalog(byte[] json, byte[] gzipped, String etag) {
+            this.json = json;
+            this.gzipped = gzipped;
+            this.etag = etag;
+        }
+
+    }
+
 }
@@ -0,0 +1,45 @@
+package org.cloudfoundry.community.servicebroker.database.controller;
+
+import org.cloudfoundry.community.servicebroker.database.metrics.MetricsRegistry;
+import org.cloudfoundry.community.servicebroker.database.metrics.StatsProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Serves the broker's metrics in the Prometheus text format.
+ * The counters of the stats endpoint are included as gauges named broker_&lt;stats name&gt;_&lt;stat&gt;.
+ */
+@RestController
+public class MetricsController {
+
+    public static final String BASE_PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Autowired(required = false)
+    private List<StatsProvider> statsProviders = Collections.emptyList();
+
+    @RequestMapping(value = BASE_PATH, method = RequestMethod.GET)
+    public void getMetrics(HttpServletResponse response) throws IOException {
+        response.setContentType(CONTENT_TYPE);
+        PrintWriter writer = response.getWriter();
+        metricsRegistry.write(writer);
+        statsProviders.forEach(provider -> provider.getStats().forEach((stat, value) -> {
+            String name = "broker_" + provider.getStatsName() + "_" + stat;
+            writer.print("# TYPE " + name + " gauge\n");
+            writer.print(name + " " + value + "\n");
+        }));
+        writer.flush();
+    }
+
+}
@@ -0,0 +1,29 @@
+package org.cloudfoundry.community.servicebroker.database.controller;
+
+import org.cloudfoundry.community.servicebroker.database.metrics.StatsProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@RestController
+public class StatsController {
+
+    public static final String BASE_PATH = "/stats";
+
+    @Autowired(required = false)
+    private List<StatsProvider> statsProviders = Collections.emptyList();
+
+    @RequestMapping(value = BASE_PATH, method = RequestMethod.GET)
+    public Map<String, Map<String, Number>> getStats() {
+        Map<String, Map<String, Number>> stats = new TreeMap<>();
+        statsProviders.forEach(provider -> stats.put(provider.getStatsName(), provider.getStats()));
+        return stats;
+    }
+
+}
@@ -1,34 +1,61 @@
 package org.cloudfoundry.community.servicebroker.database.jdbc;
 
 import lombok.SneakyThrows;
+import org.cloudfoundry.community.servicebroker.database.metrics.MetricsRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.sql.DataSource;
-import java.sql.*;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 @Component
 public class QueryExecutor {
 
+    private static final int DEFAULT_FETCH_SIZE = 1000;
+
     private final Supplier<Connection> connectionSupplier;
+    private final int fetchSize;
+    private final MetricsRegistry metricsRegistry;
 
+    /**
+     * Statements executed on the datasource are timed by kind, as is the wait for a pooled connection.
+     */
     @Autowired
-    public QueryExecutor(DataSource dataSource) {
+    public QueryExecutor(DataSource dataSource,
+                         @Value("${database.query.fetch-size:" + DEFAULT_FETCH_SIZE + "}") int fetchSize,
+                         MetricsRegistry metricsRegistry) {
         connectionSupplier = () -> getConnection(dataSource);
+        this.fetchSize = fetchSize;
+        this.metricsRegistry = metricsRegistry;
     }
 
     public QueryExecutor(String url) {
         connectionSupplier = () -> getConnection(url);
+        fetchSize = DEFAULT_FETCH_SIZE;
+        metricsRegistry = null;
+    }
+
+    public QueryExecutor(String url, Properties info) {
+        connectionSupplier = () -> getConnection(url, info);
+        fetchSize = DEFAULT_FETCH_SIZE;
+        metricsRegistry = null;
     }
 
     @SneakyThrows
     private Connection getConnection(DataSource dataSource) {
-        return dataSource.getConnection();
+        long start = System.nanoTime();
+        Connection connection = dataSource.getConnection();
+        metricsRegistry.timer("broker_jdbc_connection_acquire_seconds", "Wait for a pooled connection").recordSince(start);
+        return connection;
     }
 
     @SneakyThrows
@@ -37,37 +64,63 @@ public class QueryExecutor {
     }
 
     @SneakyThrows
-    public void update(String query) {
-        try (Connection connection = connectionSupplier.get()) {
-            try (Statement statement = connection.createStatement()) {
-                statement.execute(query);
-            }
-        }
+    private Connection getConnection(String url, Properties info) {
+        return DriverManager.getConnection(url, info);
+    }
+
+    public int update(String query) {
+        return withSession(session -> session.update(query));
     }
 
-    @SneakyThrows
     public List<Map<String, String>> select(String query) {
-        try (Connection connection = connectionSupplier.get()) {
-            try (Statement statement = connection.createStatement()) {
-                ResultSet result = statement.executeQuery(query);
-                return toRows(result);
-            }
-        }
+        return withSession(session -> session.select(query));
+    }
+
+    public int update(String query, Object... parameters) {
+        return withSession(session -> session.update(query, parameters));
+    }
+
+    public List<Map<String, String>> select(String query, Object... parameters) {
+        return withSession(session -> session.select(query, parameters));
+    }
+
+    public <T> List<T> query(String query, RowMapper<T> rowMapper, Object... parameters) {
+        return withSession(session -> session.query(query, rowMapper, parameters));
+    }
+
+    /**
+     * Streams the result on a single connection, see {@link QuerySession#forEachRow}.
+     */
+    public void forEachRow(String query, RowCallback rowCallback, Object... parameters) {
+        inSession(session -> session.forEachRow(query, rowCallback, parameters));
+    }
+
+    /**
+     * Executes the statements on a single connection, see {@link QuerySession#batch}.
+     */
+    public Duration batch(List<String> statements, boolean transactional) {
+        return withSession(session -> session.batch(statements, transactional));
+    }
+
+    /**
+     * Executes the statement once per set of parameters on a single connection, see {@link QuerySession#batch}.
+     */
+    public Duration batch(String query, List<Object[]> parameters, boolean transactional) {
+        return withSession(session -> session.batch(query, parameters, transactional));
     }
 
     @SneakyThrows
-    private List<Map<String, String>> toRows(ResultSet result) {
-        ResultSetMetaData metaData = result.getMetaData();
-        int columns = metaData.getColumnCount();
-        List<Map<String, String>> rows = new ArrayList<>();
-        while (result.next()) {
-            Map<String, String> row = new HashMap<>(columns);
-            for (int i = 1; i <= columns; i++) {
-                row.put(metaData.getColumnName(i), result.getString(i));
-            }
-            rows.add(row);
+    public <T> T withSession(Function<QuerySession, T> work) {
+        try (Connection connection = connectionSupplier.get()) {
+            return work.apply(new QuerySession(connection, fetchSize, metricsRegistry));
         }
-        return rows;
+    }
+
+    public void inSession(Consumer<QuerySession> work) {
+        withSession(session -> {
+            work.accept(session);
+            return null;
+        });
     }
 
 }
@@ -0,0 +1,243 @@
+package org.cloudfoundry.community.servicebroker.database.jdbc;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.metrics.MetricsRegistry;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs statements on a single connection, which is released when the enclosing
+ * {@link QueryExecutor#inSession} or {@link QueryExecutor#withSession} call returns.
+ */
+@Slf4j
+public class QuerySession {
+
+    private static final String STATEMENT_TIMER = "broker_sql_statement_seconds";
+
+    private final Connection connection;
+    private final int fetchSize;
+    private final MetricsRegistry metricsRegistry;
+
+    /**
+     * @param metricsRegistry where statements are timed, or null if they are not
+     */
+    QuerySession(Connection connection, int fetchSize, MetricsRegistry metricsRegistry) {
+        this.connection = connection;
+        this.fetchSize = fetchSize;
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    @SneakyThrows
+    public int update(String query) {
+        try (Statement statement = connection.createStatement()) {
+            return timed(statementKind(query), () -> {
+                statement.execute(query);
+                return statement.getUpdateCount();
+            });
+        }
+    }
+
+    @SneakyThrows
+    public List<Map<String, String>> select(String query) {
+        try (Statement statement = connection.createStatement()) {
+            return timed(statementKind(query), () -> toRows(statement.executeQuery(query)));
+        }
+    }
+
+    @SneakyThrows
+    public int update(String query, Object... parameters) {
+        try (PreparedStatement statement = prepare(query, parameters)) {
+            return timed(statementKind(query), statement::executeUpdate);
+        }
+    }
+
+    @SneakyThrows
+    public List<Map<String, String>> select(String query, Object... parameters) {
+        try (PreparedStatement statement = prepare(query, parameters)) {
+            return timed(statementKind(query), () -> toRows(statement.executeQuery()));
+        }
+    }
+
+    @SneakyThrows
+    public <T> List<T> query(String query, RowMapper<T> rowMapper, Object... parameters) {
+        try (PreparedStatement statement = prepare(query, parameters)) {
+            return timed(statementKind(query), () -> {
+                ResultSet result = statement.executeQuery();
+                List<T> rows = new ArrayList<>();
+                while (result.next()) {
+                    rows.add(rowMapper.mapRow(result));
+                }
+                return rows;
+            });
+        }
+    }
+
+    /**
+     * Streams the result to the callback, fetching it from the database in chunks of database.query.fetch-size rows,
+     * so that large results are processed in constant memory.
+     */
+    @SneakyThrows
+    public void forEachRow(String query, RowCallback rowCallback, Object... parameters) {
+        try (PreparedStatement statement = prepare(query, parameters)) {
+            statement.setFetchSize(fetchSize);
+            inTransaction(() -> timed(statementKind(query), () -> { //the Postgres driver only fetches in chunks within a transaction
+                ResultSet result = statement.executeQuery();
+                while (result.next()) {
+                    rowCallback.processRow(result);
+                }
+                return null;
+            }));
+        }
+    }
+
+    /**
+     * The same query text is prepared on the server once per connection,
+     * see the prepareThreshold and StatementCache settings of the datasource.
+     */
+    private PreparedStatement prepare(String query, Object... parameters) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(query);
+        for (int i = 0; i < parameters.length; i++) {
+            statement.setObject(i + 1, parameters[i]);
+        }
+        return statement;
+    }
+
+    /**
+     * Sends the statements to the database as a single JDBC batch.
+     * Statements that cannot run inside a transaction block, such as CREATE DATABASE, must not be batched.
+     *
+     * @param transactional whether the statements are committed together or not at all
+     * @return the time it took to execute the batch
+     */
+    @SneakyThrows
+    public Duration batch(List<String> statements, boolean transactional) {
+        long start = System.nanoTime();
+        try (Statement statement = connection.createStatement()) {
+            for (String query : statements) {
+                statement.addBatch(query);
+            }
+            SqlCall<int[]> execute = () -> timed("BATCH", statement::executeBatch);
+            if (transactional) {
+                inTransaction(execute);
+            } else {
+                execute.call();
+            }
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        log.debug("executed batch of {} statements in {} ms", statements.size(), elapsed.toMillis());
+        return elapsed;
+    }
+
+    /**
+     * Executes the statement once per set of parameters, as a single JDBC batch.
+     *
+     * @param transactional whether the executions are committed together or not at all
+     * @return the time it took to execute the batch
+     */
+    @SneakyThrows
+    public Duration batch(String query, List<Object[]> parameters, boolean transactional) {
+        long start = System.nanoTime();
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            for (Object[] row : parameters) {
+                for (int i = 0; i < row.length; i++) {
+                    statement.setObject(i + 1, row[i]);
+                }
+                statement.addBatch();
+            }
+            SqlCall<int[]> execute = () -> timed(statementKind(query), statement::executeBatch);
+            if (transactional) {
+                inTransaction(execute);
+            } else {
+                execute.call();
+            }
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        log.debug("executed batch of {} statements in {} ms", parameters.size(), elapsed.toMillis());
+        return elapsed;
+    }
+
+    /**
+     * Runs the call in a transaction of its own. Should the caller already have opened a transaction on the
+     * connection, the call runs within it instead, and is committed or rolled back along with it by the caller.
+     */
+    private <T> T inTransaction(SqlCall<T> call) throws SQLException {
+        if (!connection.getAutoCommit()) {
+            return call.call();
+        }
+        connection.setAutoCommit(false);
+        try {
+            T result = call.call();
+            connection.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private <T> T timed(String statementKind, SqlCall<T> call) throws SQLException {
+        if (metricsRegistry == null) {
+            return call.call();
+        }
+        long start = System.nanoTime();
+        try {
+            return call.call();
+        } finally {
+            metricsRegistry.timer(STATEMENT_TIMER, "Latency of SQL statements by kind", "kind", statementKind).recordSince(start);
+        }
+    }
+
+    /**
+     * @return the leading keywords of the statement, such as SELECT or CREATE DATABASE,
+     * which never include the names of databases or roles
+     */
+    static String statementKind(String query) {
+        String[] words = query.trim().split("\\s+", 3);
+        String kind = words[0].toUpperCase(Locale.ROOT);
+        boolean ddl = kind.equals("CREATE") || kind.equals("DROP") || kind.equals("ALTER");
+        if (ddl && words.length > 1 && words[1].matches("[A-Za-z]+")) {
+            kind += " " + words[1].toUpperCase(Locale.ROOT);
+        }
+        return kind.matches("[A-Z ]+") ? kind : "OTHER";
+    }
+
+    @FunctionalInterface
+    private interface SqlCall<T> {
+
+        T call() throws SQLException;
+
+    }
+
+    @SneakyThrows
+    static List<Map<String, String>> toRows(ResultSet result) {
+        ResultSetMetaData metaData = result.getMetaData();
+        String[] columns = new String[metaData.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = metaData.getColumnName(i + 1);
+        }
+        List<Map<String, String>> rows = new ArrayList<>();
+        while (result.next()) {
+            Map<String, String> row = new TreeMap<>(String.CASE_INSENSITIVE_ORDER); //column name case differs between databases
+            for (int i = 0; i < columns.length; i++) {
+                row.put(columns[i], result.getString(i + 1));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+}
@@ -0,0 +1,14 @@
+package org.cloudfoundry.community.servicebroker.database.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Processes the current row of a streamed result, see {@link QuerySession#forEachRow}.
+ */
+@FunctionalInterface
+public interface RowCallback {
+
+    void processRow(ResultSet row) throws SQLException;
+
+}
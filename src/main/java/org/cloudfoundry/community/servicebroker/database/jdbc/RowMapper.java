@@ -0,0 +1,15 @@
+package org.cloudfoundry.community.servicebroker.database.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a result to an object.
+ * Implementations should read columns by index, in the order they are listed in the query.
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    T mapRow(ResultSet row) throws SQLException;
+
+}
@@ -0,0 +1,25 @@
+package org.cloudfoundry.community.servicebroker.database.metrics;
+
+import org.apache.tomcat.jdbc.pool.DataSourceProxy;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+/**
+ * Gauges of the connection pool of the broker's datasource. The time spent waiting for a connection is timed
+ * by the {@link org.cloudfoundry.community.servicebroker.database.jdbc.QueryExecutor}.
+ */
+@Component
+public class JdbcPoolMetrics {
+
+    public JdbcPoolMetrics(DataSource dataSource, MetricsRegistry metricsRegistry) {
+        if (dataSource instanceof DataSourceProxy) {
+            DataSourceProxy pool = (DataSourceProxy) dataSource;
+            metricsRegistry.gauge("broker_jdbc_pool_active", "Connections in use", pool::getActive);
+            metricsRegistry.gauge("broker_jdbc_pool_idle", "Idle connections", pool::getIdle);
+            metricsRegistry.gauge("broker_jdbc_pool_waiting", "Threads waiting for a connection", pool::getWaitCount);
+            metricsRegistry.gauge("broker_jdbc_pool_max_active", "Maximum connections", pool::getMaxActive);
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package org.cloudfoundry.community.servicebroker.database.metrics;
+
+import org.springframework.stereotype.Component;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * Timers and gauges of the broker, written in the Prometheus text format by the metrics endpoint.
+ * A metric is identified by its name and its labels, given as alternating label names and values.
+ */
+@Component
+public class MetricsRegistry {
+
+    public static final String OPERATION_TIMER = "broker_operation_seconds";
+
+    private final Map<String, Family<Timer>> timers = new ConcurrentSkipListMap<>();
+    private final Map<String, Family<Supplier<Number>>> gauges = new ConcurrentSkipListMap<>();
+
+    public Timer timer(String name, String help, String... labels) {
+        return timers.computeIfAbsent(name, key -> new Family<>(help))
+                .metrics.computeIfAbsent(formatLabels(labels), key -> new Timer());
+    }
+
+    public void gauge(String name, String help, Supplier<Number> value, String... labels) {
+        gauges.computeIfAbsent(name, key -> new Family<>(help))
+                .metrics.put(formatLabels(labels), value);
+    }
+
+    /**
+     * Records the latency of a service broker API call, started at startNanos.
+     */
+    public void recordOperation(String operation, long startNanos, boolean succeeded) {
+        timer(OPERATION_TIMER, "Latency of service broker API calls",
+                "operation", operation, "outcome", succeeded ? "success" : "failure").recordSince(startNanos);
+    }
+
+    public void write(PrintWriter writer) {
+        timers.forEach((name, family) -> {
+            writeHeader(writer, name, family.help, "histogram");
+            family.metrics.forEach((labels, timer) -> writeHistogram(writer, name, labels, timer));
+        });
+        gauges.forEach((name, family) -> {
+            writeHeader(writer, name, family.help, "gauge");
+            family.metrics.forEach((labels, value) -> writeSample(writer, name, labels, value.get()));
+        });
+    }
+
+    private void writeHistogram(PrintWriter writer, String name, String labels, Timer timer) {
+        long[] bucketCounts = timer.getBucketCounts();
+        long cumulativeCount = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            cumulativeCount += bucketCounts[i];
+            String bound = i < Timer.BUCKETS.length ? String.valueOf(Timer.BUCKETS[i]) : "+Inf";
+            writeSample(writer, name + "_bucket", appendLabel(labels, "le", bound), cumulativeCount);
+        }
+        writeSample(writer, name + "_count", labels, cumulativeCount);
+        writeSample(writer, name + "_sum", labels, timer.getSumSeconds());
+    }
+
+    static void writeHeader(PrintWriter writer, String name, String help, String type) {
+        writer.print("# HELP " + name + " " + help + "\n");
+        writer.print("# TYPE " + name + " " + type + "\n");
+    }
+
+    static void writeSample(PrintWriter writer, String name, String labels, Number value) {
+        writer.print(name + (labels.isEmpty() ? "" : "{" + labels + "}") + " " + value + "\n");
+    }
+
+    private static String appendLabel(String labels, String name, String value) {
+        return (labels.isEmpty() ? "" : labels + ",") + name + "=\"" + value + "\"";
+    }
+
+    static String formatLabels(String... labels) {
+        StringBuilder formatted = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            formatted.append(i == 0 ? "" : ",").append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return formatted.toString();
+    }
+
+    private static class Family<T> {
+
+        private final String help;
+        private final Map<String, T> metrics = new ConcurrentHashMap<>();
+
+        private Family(String help) {
+            this.help = help;
+        }
+
+    }
+
+}
@@ -0,0 +1,14 @@
+package org.cloudfoundry.community.servicebroker.database.metrics;
+
+import java.util.Map;
+
+/**
+ * A broker component exposing counters and gauges on the stats endpoint.
+ */
+public interface StatsProvider {
+
+    String getStatsName();
+
+    Map<String, Number> getStats();
+
+}
@@ -6,4 +6,5 @@ package org.cloudfoundry.community.servicebroker.database.repository;
 public class Consts {
     public static final String POSTGRES = "postgres";
     public static final String H2 = "h2inmemory";
+    public static final String FAST_START = "fast-start";
 }
@@ -1,5 +1,6 @@
 package org.cloudfoundry.community.servicebroker.database.repository;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -7,14 +8,57 @@ import java.util.Map;
  */
 public interface DatabaseRepository {
 
-    void createDatabase(String databaseName, int databaseConnectionsMax);
+    void createDatabase(String databaseName, String planId, int databaseConnectionsMax);
+
+    /**
+     * Applies the connection limit and settings of a plan to an existing database, for the plan of its instance has changed
+     */
+    void updateDatabase(String databaseName, String planId, int databaseConnectionsMax);
 
     void deleteDatabase(String databaseName);
 
+    /**
+     * @return whether the repository implements {@link #buryDatabase}, {@link #restoreDatabase} and {@link #dropTombstone}
+     */
+    default boolean supportsTombstones() {
+        return false;
+    }
+
+    /**
+     * Detaches a database from its tenants at once, by closing their connections and renaming the database and its
+     * owner role to the tombstone name, so that it can be dropped later, or restored by {@link #restoreDatabase}.
+     */
+    default void buryDatabase(String databaseName, String tombstone) {
+        throw new UnsupportedOperationException("tombstones are not supported by " + getClass().getSimpleName());
+    }
+
+    default void restoreDatabase(String tombstone, String databaseName) {
+        throw new UnsupportedOperationException("tombstones are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Drops a database buried by {@link #buryDatabase}, along with its owner role, unless they have been dropped already.
+     */
+    default void dropTombstone(String tombstone) {
+        deleteDatabase(tombstone);
+    }
+
     Map<String, Object> createUser(String databaseName, String username, String password);
 
     void deleteUser(String databaseName, String username);
     
     boolean userExists(String databaseName, String username);
 
+    /**
+     * @return the users created by {@link #createUser} for the database
+     */
+    List<String> findUsers(String databaseName);
+
+    /**
+     * @return the disk space used by the databases of the server, or 0 if it is not known
+     */
+    default long getUsedBytes() {
+        return 0;
+    }
+
 }
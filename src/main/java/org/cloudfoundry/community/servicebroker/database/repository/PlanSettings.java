@@ -0,0 +1,70 @@
+package org.cloudfoundry.community.servicebroker.database.repository;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+import org.springframework.util.Assert;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Broker-side settings of a catalog plan, configured in the database.plans property.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PlanSettings {
+
+    private static final Pattern PARAMETER_VALUE = Pattern.compile("[0-9]+ ?[A-Za-z]*");
+
+    /**
+     * Location of a SQL script that initializes every database of the plan, e.g. classpath:db/template/plan.sql
+     */
+    private String template;
+
+    /**
+     * Maximum number of connections to each database of the plan, which overrides database.connections.max
+     */
+    @JsonProperty("connection_limit")
+    private Integer connectionLimit;
+
+    /**
+     * Postgres settings of each database of the plan, e.g. "30s" or "64MB", which are left at the server's default when not set
+     */
+    @JsonProperty("statement_timeout")
+    private String statementTimeout;
+
+    @JsonProperty("idle_in_transaction_session_timeout")
+    private String idleInTransactionSessionTimeout;
+
+    @JsonProperty("work_mem")
+    private String workMem;
+
+    @JsonProperty("temp_file_limit")
+    private String tempFileLimit;
+
+    public int getConnectionLimit(int defaultConnectionLimit) {
+        return connectionLimit == null ? defaultConnectionLimit : connectionLimit;
+    }
+
+    /**
+     * @return every configurable setting of the databases of the plan, keyed by name, with null for those not set
+     */
+    @JsonIgnore
+    public Map<String, String> getDatabaseParameters() {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("statement_timeout", statementTimeout);
+        parameters.put("idle_in_transaction_session_timeout", idleInTransactionSessionTimeout);
+        parameters.put("work_mem", workMem);
+        parameters.put("temp_file_limit", tempFileLimit);
+        return parameters;
+    }
+
+    void validate(String planId) {
+        getDatabaseParameters().forEach((name, value) -> Assert.isTrue(value == null || PARAMETER_VALUE.matcher(value).matches(),
+                "invalid " + name + " '" + value + "' of plan " + planId + ", expected a number with an optional unit"));
+    }
+
+}
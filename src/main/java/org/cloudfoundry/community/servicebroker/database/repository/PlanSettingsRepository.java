@@ -0,0 +1,63 @@
+package org.cloudfoundry.community.servicebroker.database.repository;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+@Component
+@Slf4j
+public class PlanSettingsRepository {
+
+    private final Map<String, PlanSettings> plans;
+    private final Map<String, String> templateScripts = new HashMap<>();
+
+    public PlanSettingsRepository(@Value("${database.plans}") String plansJson) throws IOException {
+        log.info("using plan settings - {}", plansJson);
+        plans = new ObjectMapper().readValue(plansJson, new TypeReference<Map<String, PlanSettings>>() {
+        });
+        for (Map.Entry<String, PlanSettings> plan : plans.entrySet()) {
+            plan.getValue().validate(plan.getKey());
+            String template = plan.getValue().getTemplate();
+            if (template != null) {
+                templateScripts.put(plan.getKey(), loadScript(template));
+            }
+        }
+    }
+
+    private String loadScript(String location) throws IOException {
+        Resource resource = new DefaultResourceLoader().getResource(location);
+        try (InputStream script = resource.getInputStream()) {
+            return StreamUtils.copyToString(script, StandardCharsets.UTF_8);
+        }
+    }
+
+    public PlanSettings getPlanSettings(String planId) {
+        PlanSettings planSettings = planId == null ? null : plans.get(planId);
+        return planSettings == null ? new PlanSettings() : planSettings;
+    }
+
+    public Optional<String> findTemplateScript(String planId) {
+        return Optional.ofNullable(planId == null ? null : templateScripts.get(planId));
+    }
+
+    /**
+     * @return the template script of every plan that has one, keyed by plan id
+     */
+    public Map<String, String> getTemplateScripts() {
+        return Collections.unmodifiableMap(templateScripts);
+    }
+
+}
@@ -0,0 +1,53 @@
+package org.cloudfoundry.community.servicebroker.database.repository;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.jdbc.QueryExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Registry of service bindings, so that binding lookups do not query the tenant databases.
+ */
+@Component
+@Slf4j
+@AllArgsConstructor
+public class ServiceBindingRepository {
+
+    private final QueryExecutor queryExecutor;
+
+    public void save(UUID instanceId, String bindingId) {
+        log.info("saving binding {} of service instance {}", bindingId, instanceId);
+        queryExecutor.update("INSERT INTO \"brokerdb\".servicebinding (id, instance_id) VALUES (?, ?)", bindingId, instanceId.toString());
+        log.info("saved binding {} of service instance {}", bindingId, instanceId);
+    }
+
+    public void delete(UUID instanceId, String bindingId) {
+        log.info("deleting binding {} of service instance {}", bindingId, instanceId);
+        queryExecutor.update("DELETE FROM \"brokerdb\".servicebinding WHERE instance_id = ? AND id = ?", instanceId.toString(), bindingId);
+        log.info("deleted binding {} of service instance {}", bindingId, instanceId);
+    }
+
+    public void deleteAll(UUID instanceId) {
+        log.info("deleting bindings of service instance {}", instanceId);
+        int deleted = queryExecutor.update("DELETE FROM \"brokerdb\".servicebinding WHERE instance_id = ?", instanceId.toString());
+        log.info("deleted {} bindings of service instance {}", deleted, instanceId);
+    }
+
+    public boolean exists(UUID instanceId, String bindingId) {
+        return !queryExecutor.query(
+                "SELECT 1 FROM \"brokerdb\".servicebinding WHERE instance_id = ? AND id = ?",
+                row -> row.getInt(1),
+                instanceId.toString(), bindingId).isEmpty();
+    }
+
+    public List<String> findBindingIds(UUID instanceId) {
+        return queryExecutor.query(
+                "SELECT id FROM \"brokerdb\".servicebinding WHERE instance_id = ?",
+                row -> row.getString(1),
+                instanceId.toString());
+    }
+
+}
@@ -15,64 +15,337 @@
  */
 package org.cloudfoundry.community.servicebroker.database.repository;
 
-import lombok.AllArgsConstructor;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
 import lombok.extern.slf4j.Slf4j;
 import org.cloudfoundry.community.servicebroker.database.jdbc.QueryExecutor;
+import org.cloudfoundry.community.servicebroker.database.metrics.StatsProvider;
 import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
 import org.cloudfoundry.community.servicebroker.model.ServiceInstance;
+import org.cloudfoundry.community.servicebroker.model.ServiceInstanceLastOperation;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
+/**
+ * Registry of service instances. Lookups, including of instances that do not exist, are cached for
+ * database.registry.cache.ttl seconds, so changes made by other broker instances may take that long to be seen.
+ */
 @Component
 @Slf4j
-@AllArgsConstructor
-public class ServiceInstanceRepository {
+public class ServiceInstanceRepository implements StatsProvider {
+
+    public static final String PROVISION = "provision";
+    public static final String DEPROVISION = "deprovision";
+    public static final String UPDATE = "update";
+    private static final String UNIQUE_VIOLATION = "23505";
+    private static final int DESCRIPTION_LENGTH = 1024;
+    private static final String INSERT = "INSERT INTO \"brokerdb\".serviceinstance (id, service_definition_id, plan_id, org_id, space_id, last_operation, last_operation_state, last_operation_description, last_operation_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
     private final QueryExecutor queryExecutor;
+    private final Cache<UUID, Optional<ServiceInstance>> cache;
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ServiceInstanceRepository(QueryExecutor queryExecutor,
+                                     @Value("${database.registry.cache.size:10000}") long cacheSize,
+                                     @Value("${database.registry.cache.ttl:30}") long cacheTtlSeconds) {
+        this.queryExecutor = queryExecutor;
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
 
-    public void save(CreateServiceInstanceRequest serviceInstance) {
+    /**
+     * Saves the instance unless an instance with the same id exists, in a single statement, so that of concurrent
+     * requests for the same instance, on this broker or on others, exactly one succeeds.
+     *
+     * @return false if an instance with the same id exists
+     */
+    public boolean claim(CreateServiceInstanceRequest serviceInstance, OperationState state) {
         log.info("saving service instance {}", serviceInstance.getServiceInstanceId());
-        queryExecutor.update(String.format(
-                "INSERT INTO \"brokerdb\".serviceinstance (id, service_definition_id, plan_id, org_id, space_id) VALUES ('%s', '%s', '%s', '%s', '%s')",
-                serviceInstance.getServiceInstanceId(),
-                serviceInstance.getServiceDefinitionId(),
-                serviceInstance.getPlanId(),
-                serviceInstance.getOrganizationGuid(),
-                serviceInstance.getSpaceGuid()));
+        try {
+            queryExecutor.update(INSERT, toParameters(serviceInstance, state));
+        } catch (Exception e) {
+            if (isUniqueViolation(e)) {
+                log.info("service instance {} already exists", serviceInstance.getServiceInstanceId());
+                return false;
+            }
+            throw e;
+        } finally {
+            invalidate(UUID.fromString(serviceInstance.getServiceInstanceId()));
+        }
         log.info("saved service instance {}", serviceInstance.getServiceInstanceId());
+        return true;
+    }
+
+    /**
+     * Claims the instances whose ids are not taken with a single batch of inserts. Should another request claim one
+     * of them meanwhile, the batch is rolled back and the instances are claimed one by one.
+     *
+     * @return the claimed instances
+     */
+    public List<CreateServiceInstanceRequest> claimAll(List<CreateServiceInstanceRequest> serviceInstances, OperationState state) {
+        Set<String> existingIds = findExistingIds(serviceInstances.stream()
+                .map(CreateServiceInstanceRequest::getServiceInstanceId)
+                .collect(Collectors.toList()));
+        Map<String, CreateServiceInstanceRequest> unclaimed = new LinkedHashMap<>();
+        serviceInstances.stream()
+                .filter(serviceInstance -> !existingIds.contains(serviceInstance.getServiceInstanceId()))
+                .forEach(serviceInstance -> unclaimed.putIfAbsent(serviceInstance.getServiceInstanceId(), serviceInstance));
+        log.info("saving {} service instances", unclaimed.size());
+        try {
+            queryExecutor.batch(INSERT, unclaimed.values().stream()
+                    .map(serviceInstance -> toParameters(serviceInstance, state))
+                    .collect(Collectors.toList()), true);
+        } catch (Exception e) {
+            if (!isUniqueViolation(e)) {
+                throw e;
+            }
+            log.info("some of the service instances were claimed concurrently, saving them one by one");
+            return unclaimed.values().stream()
+                    .filter(serviceInstance -> claim(serviceInstance, state))
+                    .collect(Collectors.toList());
+        } finally {
+            unclaimed.keySet().forEach(id -> invalidate(UUID.fromString(id)));
+        }
+        log.info("saved {} service instances", unclaimed.size());
+        return new ArrayList<>(unclaimed.values());
+    }
+
+    private Set<String> findExistingIds(List<String> ids) {
+        Set<String> existingIds = new HashSet<>();
+        for (List<String> chunk : Lists.partition(ids, 1000)) {
+            queryExecutor.forEachRow(
+                    "SELECT id FROM \"brokerdb\".serviceinstance WHERE id IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")",
+                    row -> existingIds.add(row.getString(1)),
+                    chunk.toArray());
+        }
+        return existingIds;
+    }
+
+    private Object[] toParameters(CreateServiceInstanceRequest serviceInstance, OperationState state) {
+        return new Object[]{
+                serviceInstance.getServiceInstanceId(),
+                String.valueOf(serviceInstance.getServiceDefinitionId()),
+                String.valueOf(serviceInstance.getPlanId()),
+                String.valueOf(serviceInstance.getOrganizationGuid()),
+                String.valueOf(serviceInstance.getSpaceGuid()),
+                PROVISION,
+                state.name(),
+                describe(PROVISION, state),
+                Timestamp.from(Instant.now())};
+    }
+
+    /**
+     * @return whether the exception, or any exception it was caused by or chained to, is a unique violation
+     */
+    private static boolean isUniqueViolation(Exception e) {
+        for (Throwable throwable : Throwables.getCausalChain(e)) {
+            for (SQLException cause = throwable instanceof SQLException ? (SQLException) throwable : null; cause != null; cause = cause.getNextException()) {
+                if (UNIQUE_VIOLATION.equals(cause.getSQLState())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public void updatePlan(UUID instanceId, String planId) {
+        log.info("changing plan of service instance {} to {}", instanceId, planId);
+        queryExecutor.update("UPDATE \"brokerdb\".serviceinstance SET plan_id = ? WHERE id = ?", planId, instanceId.toString());
+        invalidate(instanceId);
     }
 
     public void delete(UUID instanceId) {
         log.info("deleting service instance {}", instanceId);
-        queryExecutor.update("DELETE FROM \"brokerdb\".serviceinstance WHERE id = '" + instanceId + "'");
+        queryExecutor.update("DELETE FROM \"brokerdb\".serviceinstance WHERE id = ?", instanceId.toString());
+        invalidate(instanceId);
         log.info("deleted service instance {}", instanceId);
     }
 
+    /**
+     * Marks an operation as in progress, unless another operation is already in progress for the instance.
+     *
+     * @return false if the instance does not exist or another operation is in progress
+     */
+    public boolean startOperation(UUID instanceId, String operation) {
+        int updated = queryExecutor.update(
+                "UPDATE \"brokerdb\".serviceinstance SET last_operation = ?, last_operation_state = ?, last_operation_description = ?, last_operation_at = ? WHERE id = ? AND last_operation_state <> ?",
+                operation,
+                OperationState.IN_PROGRESS.name(),
+                describe(operation, OperationState.IN_PROGRESS),
+                Timestamp.from(Instant.now()),
+                instanceId.toString(),
+                OperationState.IN_PROGRESS.name());
+        invalidate(instanceId);
+        return updated == 1;
+    }
+
+    /**
+     * Records the outcome of an operation. The description is truncated to the width of its column, as it may
+     * carry the message of a failure, so that recording the failure cannot fail in turn.
+     */
+    public void completeOperation(UUID instanceId, String operation, OperationState state, String description) {
+        log.info("{} of service instance {} - {}", operation, instanceId, state);
+        String recorded = description == null ? describe(operation, state) : description;
+        queryExecutor.update(
+                "UPDATE \"brokerdb\".serviceinstance SET last_operation = ?, last_operation_state = ?, last_operation_description = ?, last_operation_at = ? WHERE id = ?",
+                operation,
+                state.name(),
+                recorded.length() > DESCRIPTION_LENGTH ? recorded.substring(0, DESCRIPTION_LENGTH) : recorded,
+                Timestamp.from(Instant.now()),
+                instanceId.toString());
+        invalidate(instanceId);
+    }
+
+    /**
+     * Fails the operations in progress since before the given instant, such as those of a broker instance that
+     * stopped or crashed while they were running or queued, so that they do not block later operations for good.
+     *
+     * @return the number of failed operations
+     */
+    public int failStaleOperations(Instant before) {
+        int failed = queryExecutor.update(
+                "UPDATE \"brokerdb\".serviceinstance SET last_operation_state = ?, last_operation_description = ?, last_operation_at = ?" +
+                        " WHERE last_operation_state = ? AND last_operation_at < ?",
+                OperationState.FAILED.name(),
+                "operation abandoned, try again",
+                Timestamp.from(Instant.now()),
+                OperationState.IN_PROGRESS.name(),
+                Timestamp.from(before));
+        if (failed > 0) {
+            cache.invalidateAll();
+            invalidations.incrementAndGet();
+        }
+        return failed;
+    }
+
+    private String describe(String operation, OperationState state) {
+        return operation + " " + state.name().toLowerCase().replace('_', ' ');
+    }
+
+    /**
+     * Looks up the instance outside of the cache's locks, rather than with a loader, which Guava runs while holding
+     * a monitor that pins virtual threads. A lookup that overlaps a change of any instance is not cached, so that
+     * it cannot overwrite the invalidation of the change.
+     */
     public Optional<ServiceInstance> findServiceInstance(UUID instanceId) {
+        Optional<ServiceInstance> cached = cache.getIfPresent(instanceId);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = invalidations.get();
+        Optional<ServiceInstance> instance = loadServiceInstance(instanceId);
+        if (invalidations.get() == generation) {
+            cache.put(instanceId, instance);
+        }
+        return instance;
+    }
+
+    private void invalidate(UUID instanceId) {
+        invalidations.incrementAndGet();
+        cache.invalidate(instanceId);
+    }
+
+    private Optional<ServiceInstance> loadServiceInstance(UUID instanceId) {
         log.info("locating service instance {}", instanceId);
-        List<Map<String, String>> instances = queryExecutor.select(
-                "SELECT * FROM \"brokerdb\".serviceinstance WHERE id = '" + instanceId + "'");
+        List<ServiceInstance> instances = queryExecutor.query(
+                "SELECT id, service_definition_id, plan_id, org_id, space_id, last_operation_state, last_operation_description FROM \"brokerdb\".serviceinstance WHERE id = ?",
+                this::toServiceInstance,
+                instanceId.toString());
         Assert.state(instances.size() <= 1, "found multiple instances with id " + instanceId);
         if (instances.isEmpty()) {
             log.info("service instance {} not found", instanceId);
             return Optional.empty();
         } else {
             log.info("found service instance {}", instanceId);
-            Map<String, String> instance = instances.iterator().next();
-            String serviceDefinitionId = instance.get("servicedefinitionid");
-            String organizationGuid = instance.get("organizationguid");
-            String planId = instance.get("planid");
-            String spaceGuid = instance.get("spaceguid");
-            CreateServiceInstanceRequest wrapper
-                    = new CreateServiceInstanceRequest(serviceDefinitionId, planId, organizationGuid, spaceGuid)
-                    .withServiceInstanceId(instanceId.toString());
-            return Optional.of(new ServiceInstance(wrapper));
+            return Optional.of(instances.iterator().next());
         }
     }
 
+    /**
+     * Records the server on which the database of the instance is placed.
+     */
+    public void assignServer(UUID instanceId, String serverId) {
+        log.info("placing service instance {} on server {}", instanceId, serverId);
+        queryExecutor.update("UPDATE \"brokerdb\".serviceinstance SET server_id = ? WHERE id = ?", serverId, instanceId.toString());
+    }
+
+    /**
+     * @return the server of the instance, or empty if the instance does not exist or is not placed yet
+     */
+    public Optional<String> findServerId(UUID instanceId) {
+        return queryExecutor.query("SELECT server_id FROM \"brokerdb\".serviceinstance WHERE id = ?",
+                row -> row.getString(1),
+                instanceId.toString()).stream().filter(Objects::nonNull).findFirst();
+    }
+
+    /**
+     * @return the number of instances placed on each server
+     */
+    public Map<String, Long> countByServer() {
+        Map<String, Long> counts = new HashMap<>();
+        queryExecutor.forEachRow("SELECT server_id, count(*) FROM \"brokerdb\".serviceinstance GROUP BY server_id",
+                row -> counts.put(row.getString(1), row.getLong(2)));
+        return counts;
+    }
+
+    public List<UUID> findServiceInstanceIds() {
+        List<UUID> instanceIds = new ArrayList<>();
+        queryExecutor.forEachRow("SELECT id FROM \"brokerdb\".serviceinstance",
+                row -> instanceIds.add(UUID.fromString(row.getString(1))));
+        return instanceIds;
+    }
+
+    private ServiceInstance toServiceInstance(ResultSet row) throws SQLException {
+        CreateServiceInstanceRequest wrapper
+                = new CreateServiceInstanceRequest(row.getString(2), row.getString(3), row.getString(4), row.getString(5))
+                .withServiceInstanceId(row.getString(1));
+        ServiceInstanceLastOperation lastOperation = new ServiceInstanceLastOperation(
+                row.getString(7),
+                OperationState.valueOf(row.getString(6)));
+        return new ServiceInstance(wrapper).withLastOperation(lastOperation);
+    }
+
+    @Override
+    public String getStatsName() {
+        return "registry_cache";
+    }
+
+    @Override
+    public Map<String, Number> getStats() {
+        CacheStats stats = cache.stats();
+        Map<String, Number> result = new LinkedHashMap<>();
+        result.put("size", cache.size());
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("evictions", stats.evictionCount());
+        return result;
+    }
+
 }
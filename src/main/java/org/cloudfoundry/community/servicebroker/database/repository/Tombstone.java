@@ -0,0 +1,34 @@
+package org.cloudfoundry.community.servicebroker.database.repository;
+
+import lombok.Value;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A deprovisioned database awaiting its drop, renamed to the tombstone name, along with what it takes to restore
+ * its instance.
+ */
+@Value
+public class Tombstone {
+
+    private final String name;
+    private final UUID instanceId;
+    private final String serviceDefinitionId;
+    private final String planId;
+    private final String organizationGuid;
+    private final String spaceGuid;
+    private final String serverId;
+    private final Instant buriedAt;
+
+    public static String nameOf(UUID instanceId, Instant buriedAt) {
+        return "broker_tombstone_" + instanceId.toString().replace("-", "") + "_" + buriedAt.toEpochMilli();
+    }
+
+    public CreateServiceInstanceRequest toRequest() {
+        return new CreateServiceInstanceRequest(serviceDefinitionId, planId, organizationGuid, spaceGuid)
+                .withServiceInstanceId(instanceId.toString());
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.cloudfoundry.community.servicebroker.database.repository;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.jdbc.QueryExecutor;
+import org.springframework.stereotype.Component;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Registry of the tombstones of deprovisioned databases that are yet to be dropped.
+ */
+@Component
+@Slf4j
+@AllArgsConstructor
+public class TombstoneRepository {
+
+    private static final String COLUMNS = "name, instance_id, service_definition_id, plan_id, org_id, space_id, server_id, buried_at";
+
+    private final QueryExecutor queryExecutor;
+
+    public void save(Tombstone tombstone) {
+        log.info("saving tombstone {} of service instance {}", tombstone.getName(), tombstone.getInstanceId());
+        queryExecutor.update("INSERT INTO \"brokerdb\".tombstone (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+                tombstone.getName(),
+                tombstone.getInstanceId().toString(),
+                tombstone.getServiceDefinitionId(),
+                tombstone.getPlanId(),
+                tombstone.getOrganizationGuid(),
+                tombstone.getSpaceGuid(),
+                tombstone.getServerId(),
+                Timestamp.from(tombstone.getBuriedAt()));
+        log.info("saved tombstone {} of service instance {}", tombstone.getName(), tombstone.getInstanceId());
+    }
+
+    public void delete(String name) {
+        log.info("deleting tombstone {}", name);
+        queryExecutor.update("DELETE FROM \"brokerdb\".tombstone WHERE name = ?", name);
+        log.info("deleted tombstone {}", name);
+    }
+
+    public Optional<Tombstone> find(String name) {
+        return queryExecutor.query("SELECT " + COLUMNS + " FROM \"brokerdb\".tombstone WHERE name = ?",
+                this::toTombstone, name).stream().findFirst();
+    }
+
+    /**
+     * @return the most recent tombstone of the instance that is not claimed for dropping
+     */
+    public Optional<Tombstone> findLatest(UUID instanceId) {
+        return queryExecutor.query("SELECT " + COLUMNS + " FROM \"brokerdb\".tombstone WHERE instance_id = ? AND drop_claimed_at IS NULL ORDER BY buried_at DESC",
+                this::toTombstone, instanceId.toString()).stream().findFirst();
+    }
+
+    /**
+     * @return the oldest tombstones buried before the given instant, that are not claimed for dropping since
+     * claimedBefore or later, at most limit of them
+     */
+    public List<Tombstone> findBuriedBefore(Instant instant, Instant claimedBefore, int limit) {
+        return queryExecutor.query("SELECT " + COLUMNS + " FROM \"brokerdb\".tombstone WHERE buried_at < ?" +
+                        " AND (drop_claimed_at IS NULL OR drop_claimed_at < ?) ORDER BY buried_at LIMIT ?",
+                this::toTombstone, Timestamp.from(instant), Timestamp.from(claimedBefore), limit);
+    }
+
+    /**
+     * Claims a tombstone for dropping, so that broker instances sharing the registry do not drop it concurrently.
+     * A claim made before claimedBefore is considered abandoned, and is taken over.
+     *
+     * @return whether the tombstone was claimed
+     */
+    public boolean claimDrop(String name, Instant now, Instant claimedBefore) {
+        return queryExecutor.update("UPDATE \"brokerdb\".tombstone SET drop_claimed_at = ?" +
+                        " WHERE name = ? AND (drop_claimed_at IS NULL OR drop_claimed_at < ?)",
+                Timestamp.from(now), name, Timestamp.from(claimedBefore)) == 1;
+    }
+
+    public void releaseDrop(String name) {
+        queryExecutor.update("UPDATE \"brokerdb\".tombstone SET drop_claimed_at = NULL WHERE name = ?", name);
+    }
+
+    public long count() {
+        return queryExecutor.query("SELECT count(*) FROM \"brokerdb\".tombstone", row -> row.getLong(1)).get(0);
+    }
+
+    private Tombstone toTombstone(ResultSet row) throws SQLException {
+        return new Tombstone(
+                row.getString(1),
+                UUID.fromString(row.getString(2)),
+                row.getString(3),
+                row.getString(4),
+                row.getString(5),
+                row.getString(6),
+                row.getString(7),
+                row.getTimestamp(8).toInstant());
+    }
+
+}
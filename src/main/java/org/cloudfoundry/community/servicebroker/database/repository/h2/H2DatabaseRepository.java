@@ -20,11 +20,14 @@ import lombok.extern.slf4j.Slf4j;
 import org.cloudfoundry.community.servicebroker.database.jdbc.QueryExecutor;
 import org.cloudfoundry.community.servicebroker.database.repository.Consts;
 import org.cloudfoundry.community.servicebroker.database.repository.DatabaseRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.PlanSettingsRepository;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,24 +42,40 @@ public class H2DatabaseRepository implements DatabaseRepository {
     private static final String CREATE_USER = "CREATE USER \"%s\" PASSWORD '%s'";
     private static final String CREATE_ADMIN_USER = CREATE_USER + " ADMIN";
 
+    private final PlanSettingsRepository planSettingsRepository;
     private final String masterPassword;
     private final boolean elevatedPrivileges;
+    private final String serverPrefix;
 
 
-    public H2DatabaseRepository(@Value("${spring.datasource.password}") String masterPassword,
+    @Autowired
+    public H2DatabaseRepository(PlanSettingsRepository planSettingsRepository,
+                                @Value("${spring.datasource.password}") String masterPassword,
                                 @Value("${database.privileges.elevated}") boolean grantUsersElevatedPrivileges) {
+        this(planSettingsRepository, masterPassword, grantUsersElevatedPrivileges, "");
+    }
+
+    /**
+     * @param serverPrefix prepended to the in-memory database names, so that several repositories in the same JVM
+     *                     act as separate database servers
+     */
+    public H2DatabaseRepository(PlanSettingsRepository planSettingsRepository, String masterPassword,
+                                boolean grantUsersElevatedPrivileges, String serverPrefix) {
+        this.planSettingsRepository = planSettingsRepository;
         this.masterPassword = masterPassword;
         elevatedPrivileges = grantUsersElevatedPrivileges;
+        this.serverPrefix = serverPrefix;
     }
 
 
     @SneakyThrows
     @Override
-    public void createDatabase(String databaseName, int databaseConnectionsMax) {
+    public void createDatabase(String databaseName, String planId, int databaseConnectionsMax) {
         log.info("creating database {}", databaseName);
-        String url = String.format(CREATE_DATABASE_URL, databaseName, databaseName, masterPassword);
+        String url = String.format(CREATE_DATABASE_URL, serverPrefix + databaseName, databaseName, masterPassword);
         List<Map<String, String>> rows = new QueryExecutor(url).select("select 1");
         validateConnection(databaseName, rows);
+        planSettingsRepository.findTemplateScript(planId).ifPresent(script -> queryExecutor(databaseName).update(script)); //H2 has no template databases, so the script runs on every new database
         log.info("created database {}", databaseName);
     }
 
@@ -68,10 +87,15 @@ public class H2DatabaseRepository implements DatabaseRepository {
     }
 
     private QueryExecutor queryExecutor(String databaseName) {
-        String url = String.format(JDBC_URL, databaseName, databaseName, masterPassword);
+        String url = String.format(JDBC_URL, serverPrefix + databaseName, databaseName, masterPassword);
         return new QueryExecutor(url);
     }
 
+    @Override
+    public void updateDatabase(String databaseName, String planId, int databaseConnectionsMax) {
+        log.info("database {} now belongs to plan {}, H2 has no per-database limits to apply", databaseName, planId);
+    }
+
     @SneakyThrows
     @Override
     public void deleteDatabase(String databaseName) {
@@ -84,8 +108,9 @@ public class H2DatabaseRepository implements DatabaseRepository {
     @Override
     public Map<String, Object> createUser(String databaseName, String username, String password) {
         log.info("creating user {} for database {} with{} elevated privileges", username, databaseName, elevatedPrivileges ? "" : "out");
-        queryExecutor(databaseName).update(String.format(elevatedPrivileges ? CREATE_ADMIN_USER : CREATE_USER, username, password));
-        queryExecutor(databaseName).update("grant alter any schema to \"" + username + "\"");
+        queryExecutor(databaseName).batch(Arrays.asList(
+                String.format(elevatedPrivileges ? CREATE_ADMIN_USER : CREATE_USER, username, password),
+                "grant alter any schema to \"" + username + "\""), true);
         Map<String, Object> credentials = buildCredentials(databaseName, username, password);
         log.info("created user {} for database {} with{} elevated privileges", username, databaseName, elevatedPrivileges ? "" : "out");
         return credentials;
@@ -106,9 +131,17 @@ public class H2DatabaseRepository implements DatabaseRepository {
         return result.size() >= 1;
     }
 
+    @Override
+    public List<String> findUsers(String databaseName) {
+        return queryExecutor(databaseName).query(
+                "select name from information_schema.users where upper(name) <> upper(?)", //excludes the admin user of the database
+                row -> row.getString(1),
+                databaseName);
+    }
+
     private Map<String, Object> buildCredentials(String databaseName, String userName, String password) {
         Map<String, Object> credentials = new HashMap<>();
-        String jdbcUrl = String.format(JDBC_URL, databaseName, userName, password);
+        String jdbcUrl = String.format(JDBC_URL, serverPrefix + databaseName, userName, password);
         credentials.put("uri", jdbcUrl);
         credentials.put("jdbcurl", jdbcUrl);
         credentials.put("username", userName);
@@ -0,0 +1,46 @@
+package org.cloudfoundry.community.servicebroker.database.repository.h2;
+
+import org.cloudfoundry.community.servicebroker.database.repository.Consts;
+import org.cloudfoundry.community.servicebroker.database.repository.DatabaseRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.PlanSettingsRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.routing.DatabaseRepositoryFactory;
+import org.cloudfoundry.community.servicebroker.database.repository.routing.ServerSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Additional H2 servers share the JVM of the default one, their in-memory databases are told apart by the server id.
+ */
+@Component
+@Profile(Consts.H2)
+public class H2DatabaseRepositoryFactory implements DatabaseRepositoryFactory {
+
+    private final H2DatabaseRepository defaultRepository;
+    private final PlanSettingsRepository planSettingsRepository;
+    private final String masterPassword;
+    private final boolean elevatedPrivileges;
+
+    public H2DatabaseRepositoryFactory(H2DatabaseRepository defaultRepository,
+                                       PlanSettingsRepository planSettingsRepository,
+                                       @Value("${spring.datasource.password}") String masterPassword,
+                                       @Value("${database.privileges.elevated}") boolean elevatedPrivileges) {
+        this.defaultRepository = defaultRepository;
+        this.planSettingsRepository = planSettingsRepository;
+        this.masterPassword = masterPassword;
+        this.elevatedPrivileges = elevatedPrivileges;
+    }
+
+    @Override
+    public DatabaseRepository getDefault() {
+        return defaultRepository;
+    }
+
+    @Override
+    public DatabaseRepository create(String serverId, ServerSettings settings) {
+        return new H2DatabaseRepository(planSettingsRepository,
+                settings.getPassword() == null ? masterPassword : settings.getPassword(),
+                elevatedPrivileges, serverId + "_");
+    }
+
+}
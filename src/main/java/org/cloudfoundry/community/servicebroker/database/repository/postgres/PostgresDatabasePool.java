@@ -0,0 +1,153 @@
+package org.cloudfoundry.community.servicebroker.database.repository.postgres;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.jdbc.QueryExecutor;
+import org.cloudfoundry.community.servicebroker.database.jdbc.QuerySession;
+import org.cloudfoundry.community.servicebroker.database.metrics.StatsProvider;
+import org.cloudfoundry.community.servicebroker.database.repository.Consts;
+import org.cloudfoundry.community.servicebroker.database.repository.routing.AdmissionRejectedException;
+import org.cloudfoundry.community.servicebroker.database.repository.routing.DdlAdmission;
+import org.cloudfoundry.community.servicebroker.database.repository.routing.RoutingDatabaseRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of pre-created databases, each with a role of the same name, owned by the master user.
+ * Creating a database copies template1 and forces a checkpoint, whereas claiming a pooled database only renames it.
+ * The pool is disabled when database.pool.size is 0.
+ * <p>
+ * Each broker instance refills a pool of its own, so N instances keep up to N times database.pool.size idle databases.
+ * An instance starts with all the pooled databases on the server, and a database claimed by another instance
+ * in the meantime fails to be renamed and is skipped.
+ * <p>
+ * Refilling passes through the heavy DDL admission lane of the default server, and stops for the run when it is
+ * not admitted.
+ */
+@Component
+@Profile(Consts.POSTGRES)
+@Slf4j
+public class PostgresDatabasePool implements StatsProvider {
+
+    static final String POOL_PREFIX = "broker_pool_";
+
+    private final QueryExecutor queryExecutor;
+    private final DdlAdmission ddlAdmission;
+    private final int size;
+    private final int lowWatermark;
+    private final int refillRate;
+    private final Queue<String> databases = new ConcurrentLinkedQueue<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+
+    public PostgresDatabasePool(QueryExecutor queryExecutor,
+                                DdlAdmission ddlAdmission,
+                                @Value("${database.pool.size:0}") int size,
+                                @Value("${database.pool.low-watermark:0}") int lowWatermark,
+                                @Value("${database.pool.refill-rate:2}") int refillRate) {
+        this.queryExecutor = queryExecutor;
+        this.ddlAdmission = ddlAdmission;
+        this.size = size;
+        this.lowWatermark = lowWatermark > 0 ? Math.min(lowWatermark, size) : size;
+        this.refillRate = refillRate;
+        if (isEnabled()) {
+            queryExecutor.forEachRow("SELECT datname FROM pg_database WHERE datname LIKE ?",
+                    row -> databases.add(row.getString(1)),
+                    POOL_PREFIX.replace("_", "\\_") + "%");
+            log.info("database pool of size {} with low watermark {} contains {} databases", size, this.lowWatermark, databases.size());
+        }
+    }
+
+    private boolean isEnabled() {
+        return size > 0;
+    }
+
+    /**
+     * @return the name of a pooled database and of its role, both of which the caller must rename
+     */
+    public Optional<String> claim() {
+        if (!isEnabled()) {
+            return Optional.empty();
+        }
+        String database = databases.poll();
+        if (database == null) {
+            misses.incrementAndGet();
+            log.warn("database pool is empty");
+            return Optional.empty();
+        }
+        hits.incrementAndGet();
+        return Optional.of(database);
+    }
+
+    @Scheduled(fixedDelayString = "${database.pool.refill-interval:10000}")
+    public void refill() {
+        if (!isEnabled() || databases.size() >= lowWatermark) {
+            return;
+        }
+        int missing = Math.min(size - databases.size(), refillRate);
+        log.info("refilling database pool with {} databases", missing);
+        for (int i = 0; i < missing; i++) {
+            try {
+                ddlAdmission.admitHeavy(RoutingDatabaseRepository.DEFAULT_SERVER, () -> databases.add(createPooledDatabase()));
+            } catch (AdmissionRejectedException e) {
+                log.info("database server is busy, refilling the database pool on the next run");
+                return;
+            }
+        }
+    }
+
+    private String createPooledDatabase() {
+        String database = POOL_PREFIX + UUID.randomUUID().toString().replace("-", "");
+        queryExecutor.inSession(session -> {
+            session.update("CREATE ROLE \"" + database + "\"");
+            try {
+                session.update("CREATE DATABASE \"" + database + "\" ENCODING 'UTF8'");
+                session.update("REVOKE all on database \"" + database + "\" from public");
+            } catch (Exception e) {
+                dropPooledDatabase(session, database); //never queued, so nothing else would drop it
+                throw e;
+            }
+        });
+        created.incrementAndGet();
+        log.info("created pooled database {}", database);
+        return database;
+    }
+
+    private void dropPooledDatabase(QuerySession session, String database) {
+        log.warn("dropping partially created pooled database {}", database);
+        try {
+            session.update("DROP DATABASE IF EXISTS \"" + database + "\"");
+            session.update("DROP ROLE IF EXISTS \"" + database + "\"");
+        } catch (Exception e) {
+            log.warn("failed to drop partially created pooled database {}", database, e);
+        }
+    }
+
+    @Override
+    public String getStatsName() {
+        return "database_pool";
+    }
+
+    @Override
+    public Map<String, Number> getStats() {
+        Map<String, Number> stats = new LinkedHashMap<>();
+        stats.put("size", size);
+        stats.put("low_watermark", lowWatermark);
+        stats.put("available", databases.size());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("created", created.get());
+        return stats;
+    }
+
+}
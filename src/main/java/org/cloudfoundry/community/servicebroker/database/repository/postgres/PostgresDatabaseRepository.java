@@ -19,17 +19,23 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.tomcat.jdbc.pool.DataSource;
 import org.cloudfoundry.community.servicebroker.database.jdbc.QueryExecutor;
+import org.cloudfoundry.community.servicebroker.database.jdbc.QuerySession;
 import org.cloudfoundry.community.servicebroker.database.repository.Consts;
 import org.cloudfoundry.community.servicebroker.database.repository.DatabaseRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.PlanSettings;
+import org.cloudfoundry.community.servicebroker.database.repository.PlanSettingsRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
 import java.net.URI;
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 @Component
 @Profile(Consts.POSTGRES)
@@ -38,8 +44,12 @@ public class PostgresDatabaseRepository implements DatabaseRepository {
 
     private static final String POSTGRES_URL = "postgres://%s:%s@%s:%d/%s";
     private static final String JDBC_URL = "jdbc:postgresql://%s:%d/%s?user=%s&password=%s";
+    static final String UUID_PATTERN = "'^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$'";
 
     private final QueryExecutor queryExecutor;
+    private final PostgresDatabasePool databasePool;
+    private final PostgresDatabaseTemplates databaseTemplates;
+    private final PlanSettingsRepository planSettingsRepository;
     private final boolean elevatedPrivileges;
     private final String masterDbHost;
     private final int masterDbPort;
@@ -47,9 +57,15 @@ public class PostgresDatabaseRepository implements DatabaseRepository {
 
     @SneakyThrows
     public PostgresDatabaseRepository(QueryExecutor queryExecutor,
+                                      PostgresDatabasePool databasePool,
+                                      PostgresDatabaseTemplates databaseTemplates,
+                                      PlanSettingsRepository planSettingsRepository,
                                       DataSource masterDataSource,
                                       @Value("${database.privileges.elevated}") boolean grantUsersElevatedPrivileges) {
         this.queryExecutor = queryExecutor;
+        this.databasePool = databasePool;
+        this.databaseTemplates = databaseTemplates;
+        this.planSettingsRepository = planSettingsRepository;
         elevatedPrivileges = grantUsersElevatedPrivileges;
         URI uri = new URI(new URI(masterDataSource.getUrl()).getSchemeSpecificPart());
         masterDbPort = uri.getPort();
@@ -60,30 +76,160 @@ public class PostgresDatabaseRepository implements DatabaseRepository {
     }
 
     @Override
-    public void createDatabase(String databaseName, int databaseConnectionsMax) {
-        log.info("creating database {} with {} max connections", databaseName, databaseConnectionsMax);
-        queryExecutor.update(createRole(databaseName));
+    public void createDatabase(String databaseName, String planId, int databaseConnectionsMax) {
+        PlanSettings planSettings = planSettingsRepository.getPlanSettings(planId);
+        Optional<String> template = databaseTemplates.findTemplate(planId);
+        if (!template.isPresent()) {
+            Optional<String> pooledDatabase = databasePool.claim();
+            if (pooledDatabase.isPresent() && claimDatabase(pooledDatabase.get(), databaseName, planSettings, databaseConnectionsMax)) {
+                return;
+            }
+        }
+        int connectionLimit = planSettings.getConnectionLimit(databaseConnectionsMax);
+        log.info("creating database {} with {} max connections from template {}", databaseName, connectionLimit, template.orElse("template1"));
+        queryExecutor.inSession(session -> {
+            session.batch(createOwnerRole(databaseName), true);
+            session.update("CREATE DATABASE \"" + databaseName + "\" ENCODING 'UTF8'"
+                    + template.map(name -> " TEMPLATE \"" + name + "\"").orElse("")); //cannot run inside a transaction block, so it is never batched
+            List<String> statements = resourceProfile(databaseName, planSettings, connectionLimit, false);
+            statements.add("REVOKE all on database \"" + databaseName + "\" from public");
+            statements.add(setOwner(databaseName, databaseName));
+            session.batch(statements, false);
+        });
+        log.info("created database {} with {} max connections", databaseName, connectionLimit);
+    }
+
+    private List<String> createOwnerRole(String databaseName) {
+        List<String> statements = new ArrayList<>();
+        statements.add(createRole(databaseName));
         if (elevatedPrivileges) {
-            queryExecutor.update(grantRole(masterUsername, databaseName));
+            statements.add(grantRole(masterUsername, databaseName));
+        }
+        return statements;
+    }
+
+    /**
+     * @param reset whether settings the plan leaves at the server's default are reset, in case another plan had set them
+     * @return the statements that apply the connection limit and the settings of a plan to a database
+     */
+    private List<String> resourceProfile(String databaseName, PlanSettings planSettings, int connectionLimit, boolean reset) {
+        List<String> statements = new ArrayList<>();
+        statements.add("ALTER DATABASE \"" + databaseName + "\" CONNECTION LIMIT " + connectionLimit);
+        planSettings.getDatabaseParameters().forEach((name, value) -> {
+            if (value != null) {
+                statements.add("ALTER DATABASE \"" + databaseName + "\" SET " + name + " = '" + value + "'");
+            } else if (reset) {
+                statements.add("ALTER DATABASE \"" + databaseName + "\" RESET " + name);
+            }
+        });
+        return statements;
+    }
+
+    private boolean claimDatabase(String pooledDatabase, String databaseName, PlanSettings planSettings, int databaseConnectionsMax) {
+        int connectionLimit = planSettings.getConnectionLimit(databaseConnectionsMax);
+        log.info("claiming pooled database {} as {} with {} max connections", pooledDatabase, databaseName, connectionLimit);
+        return queryExecutor.withSession(session -> {
+            try {
+                session.update("ALTER DATABASE \"" + pooledDatabase + "\" RENAME TO \"" + databaseName + "\"");
+            } catch (Exception e) {
+                log.warn("failed to claim pooled database {}, creating database {} instead", pooledDatabase, databaseName, e);
+                return false;
+            }
+            List<String> statements = new ArrayList<>();
+            statements.add("ALTER ROLE \"" + pooledDatabase + "\" RENAME TO \"" + databaseName + "\"");
+            if (elevatedPrivileges) {
+                statements.add(grantRole(masterUsername, databaseName));
+            }
+            statements.addAll(resourceProfile(databaseName, planSettings, connectionLimit, false));
+            statements.add(setOwner(databaseName, databaseName));
+            try {
+                session.batch(statements, true);
+            } catch (Exception e) {
+                log.warn("failed to claim pooled database {}, creating database {} instead", pooledDatabase, databaseName, e);
+                dropClaimedDatabase(session, pooledDatabase, databaseName);
+                return false;
+            }
+            log.info("claimed pooled database {} as {} with {} max connections", pooledDatabase, databaseName, connectionLimit);
+            return true;
+        });
+    }
+
+    /**
+     * Drops a pooled database renamed for an instance whose claim failed afterwards, along with its role, which the
+     * rolled back batch left under its pooled name, so that neither is left behind under a name nothing reconciles.
+     */
+    private void dropClaimedDatabase(QuerySession session, String pooledDatabase, String databaseName) {
+        try {
+            session.update("DROP DATABASE IF EXISTS \"" + databaseName + "\"");
+            session.update("DROP ROLE IF EXISTS \"" + pooledDatabase + "\"");
+        } catch (Exception e) {
+            log.warn("failed to drop pooled database {} claimed as {}", pooledDatabase, databaseName, e);
         }
-        queryExecutor.update("CREATE DATABASE \"" + databaseName + "\" ENCODING 'UTF8'");
-        queryExecutor.update("ALTER DATABASE \"" + databaseName + "\" CONNECTION LIMIT " + databaseConnectionsMax);
-        queryExecutor.update("REVOKE all on database \"" + databaseName + "\" from public");
-        queryExecutor.update(setOwner(databaseName, databaseName));
-        log.info("created database {} with {} max connections", databaseName, databaseConnectionsMax);
+    }
+
+    @Override
+    public void updateDatabase(String databaseName, String planId, int databaseConnectionsMax) {
+        PlanSettings planSettings = planSettingsRepository.getPlanSettings(planId);
+        int connectionLimit = planSettings.getConnectionLimit(databaseConnectionsMax);
+        log.info("updating database {} to plan {} with {} max connections", databaseName, planId, connectionLimit);
+        queryExecutor.batch(resourceProfile(databaseName, planSettings, connectionLimit, true), true); //applies to new sessions, open ones keep their settings
+        log.info("updated database {} to plan {} with {} max connections", databaseName, planId, connectionLimit);
     }
 
     @Override
     public void deleteDatabase(String databaseName) {
         log.info("deleting database {}", databaseName);
-        List<Map<String, String>> terminatedConnections = queryExecutor.select(terminateConnections(databaseName));
-        log.warn("terminated {} connections to {}", terminatedConnections.size(), databaseName);
-        queryExecutor.update(setOwner(databaseName, masterUsername));
-        queryExecutor.update("DROP DATABASE \"" + databaseName + "\"");
-        queryExecutor.update(deleteRole(databaseName));
+        queryExecutor.inSession(session -> {
+            List<Map<String, String>> terminatedConnections = session.select(terminateConnections(databaseName));
+            log.warn("terminated {} connections to {}", terminatedConnections.size(), databaseName);
+            session.update(setOwner(databaseName, masterUsername));
+            session.update("DROP DATABASE \"" + databaseName + "\""); //cannot run inside a transaction block, so it is never batched
+            session.update(deleteRole(databaseName));
+        });
         log.info("deleted database {}", databaseName);
     }
 
+    @Override
+    public boolean supportsTombstones() {
+        return true;
+    }
+
+    @Override
+    public void buryDatabase(String databaseName, String tombstone) {
+        log.info("burying database {} as {}", databaseName, tombstone);
+        queryExecutor.inSession(session -> {
+            session.update("REVOKE CONNECT ON DATABASE \"" + databaseName + "\" FROM \"" + databaseName + "\""); //keeps tenants from reconnecting before the rename
+            List<Map<String, String>> terminatedConnections = session.select(terminateConnections(databaseName));
+            log.warn("terminated {} connections to {}", terminatedConnections.size(), databaseName);
+            session.batch(Arrays.asList(
+                    "ALTER DATABASE \"" + databaseName + "\" RENAME TO \"" + tombstone + "\"",
+                    "ALTER ROLE \"" + databaseName + "\" RENAME TO \"" + tombstone + "\""), true);
+        });
+        log.info("buried database {} as {}", databaseName, tombstone);
+    }
+
+    @Override
+    public void restoreDatabase(String tombstone, String databaseName) {
+        log.info("restoring database {} from {}", databaseName, tombstone);
+        queryExecutor.batch(Arrays.asList(
+                "ALTER DATABASE \"" + tombstone + "\" RENAME TO \"" + databaseName + "\"",
+                "ALTER ROLE \"" + tombstone + "\" RENAME TO \"" + databaseName + "\"",
+                "GRANT CONNECT ON DATABASE \"" + databaseName + "\" TO \"" + databaseName + "\""), true);
+        log.info("restored database {} from {}", databaseName, tombstone);
+    }
+
+    @Override
+    public void dropTombstone(String tombstone) {
+        log.info("dropping tombstone {}", tombstone);
+        queryExecutor.inSession(session -> {
+            List<Map<String, String>> terminatedConnections = session.select(terminateConnections(tombstone));
+            log.warn("terminated {} connections to {}", terminatedConnections.size(), tombstone);
+            session.update("DROP DATABASE IF EXISTS \"" + tombstone + "\""); //a broker instance that took over an expired claim may find it dropped
+            session.update("DROP ROLE IF EXISTS \"" + tombstone + "\"");
+        });
+        log.info("dropped tombstone {}", tombstone);
+    }
+
     private String terminateConnections(String databaseName) {
         return "SELECT pg_terminate_backend(pid) FROM pg_stat_activity" +
                 " WHERE datname = '" + databaseName + "' AND pid <> pg_backend_pid()";
@@ -92,12 +238,12 @@ public class PostgresDatabaseRepository implements DatabaseRepository {
     @Override
     public Map<String, Object> createUser(String databaseName, String username, String password) {
         log.info("creating user {} for database {} with{} elevated privileges", username, databaseName, elevatedPrivileges ? "" : "out");
-        queryExecutor.update(createRole(username));
-        queryExecutor.update(grantRole(databaseName, username));
-        queryExecutor.update("ALTER ROLE \"" + username + "\" LOGIN password '" + password + "'");
-        Map<String, Object> credentials = buildCredentials(databaseName, username, password);
-        QueryExecutor newUserQueryExecutor = new QueryExecutor((String) credentials.get("jdbcurl"));
-        newUserQueryExecutor.update("ALTER ROLE \"" + username + "\" SET role \"" + databaseName + "\""); //If user owns database objects, user cannot be deleted. Logging in as parent role allows database objects created by this user to be owned by parent role.
+        queryExecutor.batch(Arrays.asList(
+                createRole(username),
+                grantRole(databaseName, username),
+                "ALTER ROLE \"" + username + "\" LOGIN password '" + password + "'",
+                "ALTER ROLE \"" + username + "\" IN DATABASE \"" + databaseName + "\" SET role \"" + databaseName + "\""), true); //If user owns database objects, user cannot be deleted. Logging in as parent role allows database objects created by this user to be owned by parent role.
+        Map<String, Object> credentials = buildCredentials(masterDbHost, masterDbPort, databaseName, username, password);
         log.info("created user {} for database {} with{} elevated privileges", username, databaseName, elevatedPrivileges ? "" : "out");
         return credentials;
     }
@@ -121,10 +267,12 @@ public class PostgresDatabaseRepository implements DatabaseRepository {
     @Override
     public void deleteUser(String databaseName, String username) {
         log.info("deleting user {} of database {}", username, databaseName);
-        List<Map<String, String>> terminatedConnections = queryExecutor.select(
-                terminateConnections(databaseName) + " AND usename = '" + username + "'");
-        log.warn("terminated {} connections of user {} to database {}", terminatedConnections.size(), username, databaseName);
-        queryExecutor.update(deleteRole(username));
+        queryExecutor.inSession(session -> {
+            List<Map<String, String>> terminatedConnections = session.select(
+                    terminateConnections(databaseName) + " AND usename = '" + username + "'");
+            log.warn("terminated {} connections of user {} to database {}", terminatedConnections.size(), username, databaseName);
+            session.update(deleteRole(username));
+        });
         log.info("deleted user {} of database {}", username, databaseName);
     }
 
@@ -134,7 +282,27 @@ public class PostgresDatabaseRepository implements DatabaseRepository {
         return result.size() >= 1;
     }
 
-    private Map<String, Object> buildCredentials(String databaseName, String userName, String password) {
+    /**
+     * Binding roles are named by binding ids, which are GUIDs. Other members of the database's role are not bindings,
+     * such as the master user, which becomes a member of the roles it creates on Postgres 16 and later.
+     */
+    @Override
+    public List<String> findUsers(String databaseName) {
+        return queryExecutor.query(
+                "SELECT member.rolname FROM pg_auth_members membership" +
+                        " JOIN pg_roles member ON membership.member = member.oid" +
+                        " JOIN pg_roles parent ON membership.roleid = parent.oid" +
+                        " WHERE parent.rolname = ? AND member.rolname ~ " + UUID_PATTERN,
+                row -> row.getString(1),
+                databaseName);
+    }
+
+    @Override
+    public long getUsedBytes() {
+        return queryExecutor.query("SELECT COALESCE(sum(pg_database_size(datname)), 0) FROM pg_database", row -> row.getLong(1)).get(0);
+    }
+
+    static Map<String, Object> buildCredentials(String masterDbHost, int masterDbPort, String databaseName, String userName, String password) {
         Map<String, Object> credentials = new HashMap<>();
         credentials.put("uri", String.format(POSTGRES_URL, userName, password, masterDbHost, masterDbPort, databaseName));
         credentials.put("jdbcurl", String.format(JDBC_URL, masterDbHost, masterDbPort, databaseName, userName, password));
@@ -0,0 +1,103 @@
+package org.cloudfoundry.community.servicebroker.database.repository.postgres;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.cloudfoundry.community.servicebroker.database.jdbc.QueryExecutor;
+import org.cloudfoundry.community.servicebroker.database.metrics.MetricsRegistry;
+import org.cloudfoundry.community.servicebroker.database.repository.Consts;
+import org.cloudfoundry.community.servicebroker.database.repository.DatabaseRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.PlanSettingsRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.routing.DatabaseRepositoryFactory;
+import org.cloudfoundry.community.servicebroker.database.repository.routing.DdlAdmission;
+import org.cloudfoundry.community.servicebroker.database.repository.routing.ServerSettings;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Each additional Postgres server gets a connection pool configured like the one of the default server,
+ * and its own plan templates. Database pooling is only done on the default server.
+ */
+@Component
+@Profile(Consts.POSTGRES)
+@Slf4j
+public class PostgresDatabaseRepositoryFactory implements DatabaseRepositoryFactory, DisposableBean {
+
+    private final PostgresDatabaseRepository defaultRepository;
+    private final DataSource masterDataSource;
+    private final PlanSettingsRepository planSettingsRepository;
+    private final MetricsRegistry metricsRegistry;
+    private final DdlAdmission ddlAdmission;
+    private final int fetchSize;
+    private final boolean elevatedPrivileges;
+    private final long staleTemplateGraceSeconds;
+    private final List<DataSource> dataSources = new ArrayList<>();
+    private final List<PostgresDatabaseTemplates> templates = new CopyOnWriteArrayList<>();
+
+    public PostgresDatabaseRepositoryFactory(PostgresDatabaseRepository defaultRepository,
+                                             DataSource masterDataSource,
+                                             PlanSettingsRepository planSettingsRepository,
+                                             MetricsRegistry metricsRegistry,
+                                             DdlAdmission ddlAdmission,
+                                             @Value("${database.query.fetch-size:1000}") int fetchSize,
+                                             @Value("${database.privileges.elevated}") boolean elevatedPrivileges,
+                                             @Value("${database.templates.stale-grace:86400}") long staleTemplateGraceSeconds) {
+        this.defaultRepository = defaultRepository;
+        this.masterDataSource = masterDataSource;
+        this.planSettingsRepository = planSettingsRepository;
+        this.metricsRegistry = metricsRegistry;
+        this.ddlAdmission = ddlAdmission;
+        this.fetchSize = fetchSize;
+        this.elevatedPrivileges = elevatedPrivileges;
+        this.staleTemplateGraceSeconds = staleTemplateGraceSeconds;
+    }
+
+    @Override
+    public DatabaseRepository getDefault() {
+        return defaultRepository;
+    }
+
+    @SneakyThrows
+    @Override
+    public DatabaseRepository create(String serverId, ServerSettings settings) {
+        log.info("connecting to database server {}", serverId);
+        PoolProperties poolProperties = (PoolProperties) masterDataSource.getPoolProperties().clone();
+        poolProperties.setUrl(settings.getUrl());
+        poolProperties.setUsername(settings.getUsername());
+        poolProperties.setPassword(settings.getPassword());
+        poolProperties.setName(serverId);
+        DataSource dataSource = new DataSource(poolProperties);
+        dataSources.add(dataSource);
+        QueryExecutor queryExecutor = new QueryExecutor(dataSource, fetchSize, metricsRegistry);
+        PostgresDatabaseTemplates serverTemplates = new PostgresDatabaseTemplates(serverId, queryExecutor, planSettingsRepository, dataSource, ddlAdmission, staleTemplateGraceSeconds);
+        templates.add(serverTemplates);
+        return new PostgresDatabaseRepository(queryExecutor,
+                new PostgresDatabasePool(queryExecutor, ddlAdmission, 0, 0, 0),
+                serverTemplates,
+                planSettingsRepository,
+                dataSource,
+                elevatedPrivileges);
+    }
+
+    /**
+     * The templates of the additional servers are not beans, so their stale templates are dropped from here.
+     */
+    @Scheduled(fixedDelayString = "${database.templates.cleanup-interval:3600000}")
+    public void dropStaleTemplates() {
+        templates.forEach(PostgresDatabaseTemplates::dropStaleTemplates);
+    }
+
+    @Override
+    public void destroy() {
+        dataSources.forEach(DataSource::close);
+    }
+
+}
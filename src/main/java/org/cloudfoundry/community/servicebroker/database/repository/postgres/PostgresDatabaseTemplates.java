@@ -0,0 +1,170 @@
+package org.cloudfoundry.community.servicebroker.database.repository.postgres;
+
+import com.google.common.hash.Hashing;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.cloudfoundry.community.servicebroker.database.jdbc.QueryExecutor;
+import org.cloudfoundry.community.servicebroker.database.repository.Consts;
+import org.cloudfoundry.community.servicebroker.database.repository.PlanSettingsRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.routing.DdlAdmission;
+import org.cloudfoundry.community.servicebroker.database.repository.routing.RoutingDatabaseRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Golden template databases, from which the databases of a plan are copied with CREATE DATABASE ... TEMPLATE.
+ * A template is named after the hash of its plan's script, so a changed script yields a new template,
+ * which is built under a temporary name and renamed once populated. A template that this broker does not use is
+ * marked as stale, in a comment on the database, and dropped once it has been stale for database.templates.stale-grace
+ * seconds, so that broker instances still running with the previous scripts, such as during a rolling push,
+ * keep their templates. A broker that uses a template marked as stale unmarks it.
+ * Building and dropping templates pass through the heavy DDL admission lane of their server.
+ */
+@Component
+@Profile(Consts.POSTGRES)
+@Slf4j
+public class PostgresDatabaseTemplates {
+
+    static final String TEMPLATE_PREFIX = "broker_template_";
+    private static final String STALE_SINCE = "stale since ";
+
+    private final String serverId;
+    private final QueryExecutor queryExecutor;
+    private final DdlAdmission ddlAdmission;
+    private final DataSource masterDataSource;
+    private final long staleGraceSeconds;
+    private final Map<String, String> templates = new HashMap<>();
+
+    @Autowired
+    public PostgresDatabaseTemplates(QueryExecutor queryExecutor,
+                                     PlanSettingsRepository planSettingsRepository,
+                                     DataSource masterDataSource,
+                                     DdlAdmission ddlAdmission,
+                                     @Value("${database.templates.stale-grace:86400}") long staleGraceSeconds) {
+        this(RoutingDatabaseRepository.DEFAULT_SERVER, queryExecutor, planSettingsRepository, masterDataSource, ddlAdmission, staleGraceSeconds);
+    }
+
+    PostgresDatabaseTemplates(String serverId,
+                              QueryExecutor queryExecutor,
+                              PlanSettingsRepository planSettingsRepository,
+                              DataSource masterDataSource,
+                              DdlAdmission ddlAdmission,
+                              long staleGraceSeconds) {
+        this.serverId = serverId;
+        this.queryExecutor = queryExecutor;
+        this.ddlAdmission = ddlAdmission;
+        this.masterDataSource = masterDataSource;
+        this.staleGraceSeconds = staleGraceSeconds;
+        Set<String> existingTemplates = new HashSet<>(queryExecutor.query(
+                "SELECT datname FROM pg_database WHERE datname LIKE ?",
+                row -> row.getString(1),
+                TEMPLATE_PREFIX.replace("_", "\\_") + "%"));
+        planSettingsRepository.getTemplateScripts().forEach((planId, script) -> {
+            String template = TEMPLATE_PREFIX + Hashing.sha256().hashString(script, StandardCharsets.UTF_8).toString().substring(0, 32);
+            if (!existingTemplates.contains(template) && !templates.containsValue(template)) {
+                ddlAdmission.admitHeavy(serverId, () -> buildTemplate(template, script));
+            }
+            log.info("plan {} uses template {}", planId, template);
+            templates.put(planId, template);
+        });
+    }
+
+    public Optional<String> findTemplate(String planId) {
+        return Optional.ofNullable(planId == null ? null : templates.get(planId));
+    }
+
+    private void buildTemplate(String template, String script) {
+        String building = template + "_" + UUID.randomUUID().toString().substring(0, 8);
+        log.info("building template {}", template);
+        queryExecutor.update("CREATE DATABASE \"" + building + "\" ENCODING 'UTF8'");
+        try {
+            queryExecutor.update("REVOKE all on database \"" + building + "\" from public");
+            templateQueryExecutor(building).update(script);
+            renameTemplate(building, template);
+        } catch (RuntimeException e) {
+            queryExecutor.update("DROP DATABASE IF EXISTS \"" + building + "\"");
+            throw e;
+        }
+        log.info("built template {}", template);
+    }
+
+    @SneakyThrows
+    private void renameTemplate(String building, String template) {
+        String rename = "ALTER DATABASE \"" + building + "\" RENAME TO \"" + template + "\"";
+        for (int attempt = 1; ; attempt++) {
+            try {
+                queryExecutor.update(rename);
+                return;
+            } catch (Exception e) {
+                if (attempt == 5) {
+                    throw e;
+                }
+                log.info("template {} is still in use, retrying rename", building);
+                Thread.sleep(200); //the backend that populated the template may not have exited yet
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${database.templates.cleanup-interval:3600000}")
+    public void dropStaleTemplates() {
+        long now = Instant.now().getEpochSecond();
+        queryExecutor.query("SELECT datname, shobj_description(oid, 'pg_database') FROM pg_database WHERE datname LIKE ?",
+                row -> new String[]{row.getString(1), row.getString(2)},
+                TEMPLATE_PREFIX.replace("_", "\\_") + "%")
+                .forEach(template -> {
+                    String comment = template[1];
+                    Long staleSince = comment != null && comment.startsWith(STALE_SINCE) ? Long.valueOf(comment.substring(STALE_SINCE.length())) : null;
+                    if (templates.containsValue(template[0])) {
+                        if (staleSince != null) {
+                            log.info("template {} is in use again", template[0]);
+                            queryExecutor.update("COMMENT ON DATABASE \"" + template[0] + "\" IS NULL");
+                        }
+                    } else if (staleSince == null) {
+                        log.info("template {} is stale, dropping it in {} seconds", template[0], staleGraceSeconds);
+                        queryExecutor.update("COMMENT ON DATABASE \"" + template[0] + "\" IS '" + STALE_SINCE + now + "'");
+                    } else if (now - staleSince >= staleGraceSeconds) {
+                        dropTemplate(template[0]);
+                    }
+                });
+    }
+
+    private void dropTemplate(String template) {
+        log.info("dropping stale template {}", template);
+        try {
+            ddlAdmission.admitHeavy(serverId, () -> queryExecutor.update("DROP DATABASE \"" + template + "\""));
+        } catch (Exception e) {
+            log.warn("failed to drop stale template {}, will retry", template, e);
+        }
+    }
+
+    @SneakyThrows
+    private QueryExecutor templateQueryExecutor(String template) {
+        URI uri = new URI(new URI(masterDataSource.getUrl()).getSchemeSpecificPart());
+        String url = "jdbc:postgresql://" + uri.getHost() + (uri.getPort() == -1 ? "" : ":" + uri.getPort())
+                + "/" + template + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+        Properties info = new Properties();
+        if (masterDataSource.getUsername() != null) {
+            info.setProperty("user", masterDataSource.getUsername());
+        }
+        if (masterDataSource.getPassword() != null) {
+            info.setProperty("password", masterDataSource.getPassword());
+        }
+        return new QueryExecutor(url, info);
+    }
+
+}
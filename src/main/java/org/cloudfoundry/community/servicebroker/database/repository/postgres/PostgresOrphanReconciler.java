@@ -0,0 +1,199 @@
+package org.cloudfoundry.community.servicebroker.database.repository.postgres;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.jdbc.QueryExecutor;
+import org.cloudfoundry.community.servicebroker.database.metrics.StatsProvider;
+import org.cloudfoundry.community.servicebroker.database.repository.Consts;
+import org.cloudfoundry.community.servicebroker.database.repository.routing.DdlAdmission;
+import org.cloudfoundry.community.servicebroker.database.repository.routing.RoutingDatabaseRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.time.Clock;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds databases and roles named like instances or bindings that the registry does not know of, left behind by
+ * operations that failed halfway, and instances of the registry whose database is missing.
+ * The drift is reported on the stats endpoint. When database.orphans.drop is set, orphans seen by two consecutive
+ * runs are dropped, at most database.orphans.drop-batch-size per run, within the optional maintenance window,
+ * through the DDL admission lanes of the default server.
+ * Pooled, template and other databases not named by a UUID are never considered, nor are roles that are members of
+ * the role of a registered instance, which are bindings left to the binding reconciler.
+ */
+@Component
+@Profile(Consts.POSTGRES)
+@Slf4j
+public class PostgresOrphanReconciler implements StatsProvider {
+
+    private static final String DATABASE = "database";
+    private static final String ROLE = "role";
+    private static final String MISSING_DATABASE = "missing_database";
+    private static final String FIND_DRIFT =
+            "SELECT '" + DATABASE + "', d.datname FROM pg_database d" +
+                    " WHERE d.datname ~ " + PostgresDatabaseRepository.UUID_PATTERN +
+                    " AND NOT EXISTS (SELECT 1 FROM \"brokerdb\".serviceinstance i WHERE i.id = d.datname)" +
+                    " UNION ALL" +
+                    " SELECT '" + ROLE + "', r.rolname FROM pg_roles r" +
+                    " WHERE r.rolname ~ " + PostgresDatabaseRepository.UUID_PATTERN +
+                    " AND NOT EXISTS (SELECT 1 FROM \"brokerdb\".serviceinstance i WHERE i.id = r.rolname)" +
+                    " AND NOT EXISTS (SELECT 1 FROM \"brokerdb\".servicebinding b WHERE b.id = r.rolname)" +
+                    " AND NOT EXISTS (SELECT 1 FROM pg_auth_members m" + //bindings created before the binding registry, until the binding reconciler registers them
+                    " JOIN pg_roles parent ON m.roleid = parent.oid" +
+                    " JOIN \"brokerdb\".serviceinstance i ON i.id = parent.rolname" +
+                    " WHERE m.member = r.oid)" +
+                    " UNION ALL" +
+                    " SELECT '" + MISSING_DATABASE + "', i.id FROM \"brokerdb\".serviceinstance i" +
+                    " WHERE i.last_operation_state = 'SUCCEEDED' AND i.server_id = 'default'" + //databases of other servers are not visible here
+                    " AND NOT EXISTS (SELECT 1 FROM pg_database d WHERE d.datname = i.id)";
+
+    private final QueryExecutor queryExecutor;
+    private final PostgresDatabaseRepository databaseRepository;
+    private final DdlAdmission ddlAdmission;
+    private final boolean drop;
+    private final int dropBatchSize;
+    private final LocalTime windowStart;
+    private final LocalTime windowEnd;
+    private final Clock clock;
+    private volatile Set<String> previousOrphanDatabases = new HashSet<>();
+    private volatile Set<String> previousOrphanRoles = new HashSet<>();
+    private final AtomicLong orphanDatabases = new AtomicLong();
+    private final AtomicLong orphanRoles = new AtomicLong();
+    private final AtomicLong missingDatabases = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public PostgresOrphanReconciler(QueryExecutor queryExecutor,
+                                    PostgresDatabaseRepository databaseRepository,
+                                    DdlAdmission ddlAdmission,
+                                    @Value("${database.orphans.drop:false}") boolean drop,
+                                    @Value("${database.orphans.drop-batch-size:10}") int dropBatchSize,
+                                    @Value("${database.orphans.maintenance-window:}") String maintenanceWindow) {
+        this.queryExecutor = queryExecutor;
+        this.databaseRepository = databaseRepository;
+        this.ddlAdmission = ddlAdmission;
+        this.drop = drop;
+        this.dropBatchSize = dropBatchSize;
+        if (StringUtils.hasText(maintenanceWindow)) {
+            String[] window = maintenanceWindow.trim().split("-");
+            windowStart = LocalTime.parse(window[0].trim());
+            windowEnd = LocalTime.parse(window[1].trim());
+        } else {
+            windowStart = null;
+            windowEnd = null;
+        }
+        clock = Clock.systemUTC();
+    }
+
+    @Scheduled(fixedDelayString = "${database.orphans.reconcile-interval:3600000}")
+    public void reconcile() {
+        Set<String> databases = new HashSet<>();
+        Set<String> roles = new HashSet<>();
+        List<String> missing = new ArrayList<>();
+        queryExecutor.forEachRow(FIND_DRIFT, row -> {
+            switch (row.getString(1)) {
+                case DATABASE:
+                    databases.add(row.getString(2));
+                    break;
+                case ROLE:
+                    roles.add(row.getString(2));
+                    break;
+                default:
+                    missing.add(row.getString(2));
+            }
+        });
+        orphanDatabases.set(databases.size());
+        orphanRoles.set(roles.size());
+        missingDatabases.set(missing.size());
+        if (!databases.isEmpty() || !roles.isEmpty() || !missing.isEmpty()) {
+            log.warn("found {} orphan databases, {} orphan roles and {} instances without a database {}",
+                    databases.size(), roles.size(), missing.size(), missing);
+        }
+        if (drop && inMaintenanceWindow()) {
+            dropConfirmedOrphans(databases, roles);
+        }
+        previousOrphanDatabases = databases;
+        previousOrphanRoles = roles;
+    }
+
+    private boolean inMaintenanceWindow() {
+        return windowStart == null || inWindow(LocalTime.now(clock), windowStart, windowEnd);
+    }
+
+    static boolean inWindow(LocalTime now, LocalTime windowStart, LocalTime windowEnd) {
+        return windowStart.isBefore(windowEnd)
+                ? !now.isBefore(windowStart) && now.isBefore(windowEnd)
+                : !now.isBefore(windowStart) || now.isBefore(windowEnd); //the window spans midnight
+    }
+
+    /**
+     * Orphans are only dropped once seen by two consecutive runs, so that an operation in progress between
+     * its registry update and its DDL is never mistaken for an orphan.
+     */
+    private void dropConfirmedOrphans(Set<String> databases, Set<String> roles) {
+        List<String> confirmedDatabases = confirmed(databases, previousOrphanDatabases, Collections.emptySet(), dropBatchSize);
+        //a role of the same name as an orphan database is dropped with it
+        List<String> confirmedRoles = confirmed(roles, previousOrphanRoles, databases, dropBatchSize - confirmedDatabases.size());
+        for (String database : confirmedDatabases) {
+            dropOrphan(DATABASE, database, () -> ddlAdmission.admitHeavy(RoutingDatabaseRepository.DEFAULT_SERVER,
+                    () -> databaseRepository.deleteDatabase(database))); //also drops the role of the same name
+        }
+        for (String role : confirmedRoles) {
+            dropOrphan(ROLE, role, () -> ddlAdmission.admitLight(RoutingDatabaseRepository.DEFAULT_SERVER,
+                    () -> queryExecutor.update("DROP ROLE IF EXISTS \"" + role + "\"")));
+        }
+    }
+
+    /**
+     * Returns at most limit of the orphans that the previous run also found, leaving out the excluded ones.
+     */
+    static List<String> confirmed(Set<String> orphans, Set<String> previousOrphans, Set<String> excluded, int limit) {
+        List<String> confirmed = new ArrayList<>();
+        for (String orphan : orphans) {
+            if (confirmed.size() >= limit) {
+                break;
+            }
+            if (previousOrphans.contains(orphan) && !excluded.contains(orphan)) {
+                confirmed.add(orphan);
+            }
+        }
+        return confirmed;
+    }
+
+    private void dropOrphan(String kind, String name, Runnable drop) {
+        log.warn("dropping orphan {} {}", kind, name);
+        try {
+            drop.run();
+            dropped.incrementAndGet();
+            log.warn("dropped orphan {} {}", kind, name);
+        } catch (Exception e) {
+            log.error("failed to drop orphan {} {}", kind, name, e);
+        }
+    }
+
+    @Override
+    public String getStatsName() {
+        return "orphans";
+    }
+
+    @Override
+    public Map<String, Number> getStats() {
+        Map<String, Number> stats = new LinkedHashMap<>();
+        stats.put("databases", orphanDatabases.get());
+        stats.put("roles", orphanRoles.get());
+        stats.put("missing_databases", missingDatabases.get());
+        stats.put("dropped", dropped.get());
+        return stats;
+    }
+
+}
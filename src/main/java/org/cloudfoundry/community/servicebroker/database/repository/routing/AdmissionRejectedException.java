@@ -0,0 +1,20 @@
+package org.cloudfoundry.community.servicebroker.database.repository.routing;
+
+/**
+ * Thrown when a database server is too busy to admit more DDL within the allowed wait, so that the client
+ * backs off and retries rather than piling more statements onto the server.
+ */
+public class AdmissionRejectedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public AdmissionRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+}
@@ -0,0 +1,17 @@
+package org.cloudfoundry.community.servicebroker.database.repository.routing;
+
+import org.cloudfoundry.community.servicebroker.database.repository.DatabaseRepository;
+
+/**
+ * Creates the repositories of the database servers of the active profile.
+ */
+public interface DatabaseRepositoryFactory {
+
+    /**
+     * @return the repository of the server of spring.datasource.url
+     */
+    DatabaseRepository getDefault();
+
+    DatabaseRepository create(String serverId, ServerSettings settings);
+
+}
@@ -0,0 +1,16 @@
+package org.cloudfoundry.community.servicebroker.database.repository.routing;
+
+import lombok.Value;
+import org.cloudfoundry.community.servicebroker.database.repository.DatabaseRepository;
+
+/**
+ * A database server on which instances are placed.
+ */
+@Value
+public class DatabaseServer {
+
+    private final String id;
+    private final DatabaseRepository repository;
+    private final ServerSettings settings;
+
+}
@@ -0,0 +1,258 @@
+package org.cloudfoundry.community.servicebroker.database.repository.routing;
+
+import com.google.common.util.concurrent.RateLimiter;
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.metrics.MetricsRegistry;
+import org.cloudfoundry.community.servicebroker.database.metrics.Timer;
+import org.cloudfoundry.community.servicebroker.database.repository.DatabaseRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Admission control of the DDL sent to each database server. Heavy DDL, which creates, drops or renames databases,
+ * and light DDL, which creates, drops or alters roles and settings, each pass through a lane with its own
+ * concurrency limit and token bucket rate (0 for no limit). A statement waits at most database.admission.max-wait
+ * milliseconds to be admitted, and is rejected at once when database.admission.max-queue statements already wait
+ * to be admitted.
+ * Reads are not admission controlled. Background DDL, such as refilling the database pool, building templates and
+ * dropping orphans, passes through the lanes of its server as well, by {@link #admitHeavy} and {@link #admitLight}.
+ */
+@Component
+@Slf4j
+public class DdlAdmission {
+
+    static final String HEAVY = "heavy";
+    static final String LIGHT = "light";
+
+    private final MetricsRegistry metricsRegistry;
+    private final int heavyConcurrency;
+    private final double heavyRate;
+    private final int lightConcurrency;
+    private final double lightRate;
+    private final long maxWaitMillis;
+    private final int maxQueue;
+    private final Map<String, Lane> heavyLanes = new ConcurrentHashMap<>();
+    private final Map<String, Lane> lightLanes = new ConcurrentHashMap<>();
+
+    public DdlAdmission(MetricsRegistry metricsRegistry,
+                        @Value("${database.admission.heavy.concurrency:2}") int heavyConcurrency,
+                        @Value("${database.admission.heavy.rate:5}") double heavyRate,
+                        @Value("${database.admission.light.concurrency:4}") int lightConcurrency,
+                        @Value("${database.admission.light.rate:50}") double lightRate,
+                        @Value("${database.admission.max-wait:10000}") long maxWaitMillis,
+                        @Value("${database.admission.max-queue:50}") int maxQueue) {
+        this.metricsRegistry = metricsRegistry;
+        this.heavyConcurrency = heavyConcurrency;
+        this.heavyRate = heavyRate;
+        this.lightConcurrency = lightConcurrency;
+        this.lightRate = lightRate;
+        this.maxWaitMillis = maxWaitMillis;
+        this.maxQueue = maxQueue;
+    }
+
+    /**
+     * @return the repository of the server, with its DDL admission controlled by lanes of its own
+     */
+    public DatabaseRepository admit(String serverId, DatabaseRepository repository) {
+        log.info("admitting DDL to server {} with {} concurrent heavy statements at {}/s and {} concurrent light statements at {}/s",
+                serverId, heavyConcurrency, heavyRate, lightConcurrency, lightRate);
+        return new AdmittedDatabaseRepository(repository, heavyLane(serverId), lightLane(serverId));
+    }
+
+    /**
+     * Runs DDL that creates, drops or renames databases of the server outside of its repository.
+     *
+     * @throws AdmissionRejectedException if the DDL is not admitted
+     */
+    public void admitHeavy(String serverId, Runnable work) {
+        heavyLane(serverId).admit(work);
+    }
+
+    /**
+     * Runs DDL that creates, drops or alters roles and settings of the server outside of its repository.
+     *
+     * @throws AdmissionRejectedException if the DDL is not admitted
+     */
+    public void admitLight(String serverId, Runnable work) {
+        lightLane(serverId).admit(work);
+    }
+
+    private Lane heavyLane(String serverId) {
+        return heavyLanes.computeIfAbsent(serverId, id -> new Lane(id, HEAVY, heavyConcurrency, heavyRate));
+    }
+
+    private Lane lightLane(String serverId) {
+        return lightLanes.computeIfAbsent(serverId, id -> new Lane(id, LIGHT, lightConcurrency, lightRate));
+    }
+
+    class Lane {
+
+        private final String serverId;
+        private final String name;
+        private final Semaphore permits;
+        private final RateLimiter rateLimiter;
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final AtomicLong rejected = new AtomicLong();
+        private final Timer waitTimer;
+
+        Lane(String serverId, String name, int concurrency, double rate) {
+            this.serverId = serverId;
+            this.name = name;
+            permits = new Semaphore(concurrency, true);
+            rateLimiter = rate > 0 ? RateLimiter.create(rate) : null;
+            String[] labels = {"server", serverId, "lane", name};
+            waitTimer = metricsRegistry.timer("broker_admission_wait_seconds", "Wait of admitted DDL for its lane", labels);
+            metricsRegistry.gauge("broker_admission_queue_depth", "DDL statements waiting for admission", waiting::get, labels);
+            metricsRegistry.gauge("broker_admission_in_flight", "Admitted DDL statements in progress", () -> concurrency - permits.availablePermits(), labels);
+            metricsRegistry.gauge("broker_admission_rejected", "DDL statements rejected since the broker started", rejected::get, labels);
+        }
+
+        <T> T admit(Supplier<T> work) {
+            long start = System.nanoTime();
+            boolean permitted = tryAcquirePermit(0);
+            if (!permitted || rateLimiter != null && !rateLimiter.tryAcquire()) {
+                await(start, permitted);
+            }
+            waitTimer.recordSince(start);
+            try {
+                return work.get();
+            } finally {
+                permits.release();
+            }
+        }
+
+        /**
+         * Waits for a permit, unless already permitted, and then for a token of the rate, so that a statement which
+         * times out waiting for a permit takes no token from the statements after it.
+         */
+        private void await(long start, boolean permitted) {
+            if (waiting.incrementAndGet() > maxQueue) {
+                waiting.decrementAndGet();
+                if (permitted) {
+                    permits.release();
+                }
+                throw reject("too many statements waiting");
+            }
+            try {
+                if (!permitted && !tryAcquirePermit(maxWaitMillis)) {
+                    throw reject("all " + name + " DDL slots busy for " + maxWaitMillis + "ms");
+                }
+                long remainingMillis = maxWaitMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (rateLimiter != null && !rateLimiter.tryAcquire(1, Math.max(remainingMillis, 0), TimeUnit.MILLISECONDS)) {
+                    permits.release();
+                    throw reject("rate exceeded");
+                }
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+
+        private boolean tryAcquirePermit(long timeoutMillis) {
+            try {
+                return permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS); //unlike tryAcquire(), honours the fairness of the waiting statements
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw reject("interrupted while waiting");
+            }
+        }
+
+        void admit(Runnable work) {
+            admit(() -> {
+                work.run();
+                return null;
+            });
+        }
+
+        private AdmissionRejectedException reject(String reason) {
+            rejected.incrementAndGet();
+            log.warn("rejected {} DDL for server {} - {}", name, serverId, reason);
+            return new AdmissionRejectedException("database server " + serverId + " is busy (" + reason + "), try again later",
+                    Math.max(1, TimeUnit.MILLISECONDS.toSeconds(maxWaitMillis)));
+        }
+
+    }
+
+    private static class AdmittedDatabaseRepository implements DatabaseRepository {
+
+        private final DatabaseRepository repository;
+        private final Lane heavy;
+        private final Lane light;
+
+        private AdmittedDatabaseRepository(DatabaseRepository repository, Lane heavy, Lane light) {
+            this.repository = repository;
+            this.heavy = heavy;
+            this.light = light;
+        }
+
+        @Override
+        public void createDatabase(String databaseName, String planId, int databaseConnectionsMax) {
+            heavy.admit(() -> repository.createDatabase(databaseName, planId, databaseConnectionsMax));
+        }
+
+        @Override
+        public void updateDatabase(String databaseName, String planId, int databaseConnectionsMax) {
+            light.admit(() -> repository.updateDatabase(databaseName, planId, databaseConnectionsMax));
+        }
+
+        @Override
+        public void deleteDatabase(String databaseName) {
+            heavy.admit(() -> repository.deleteDatabase(databaseName));
+        }
+
+        @Override
+        public boolean supportsTombstones() {
+            return repository.supportsTombstones();
+        }
+
+        @Override
+        public void buryDatabase(String databaseName, String tombstone) {
+            heavy.admit(() -> repository.buryDatabase(databaseName, tombstone));
+        }
+
+        @Override
+        public void restoreDatabase(String tombstone, String databaseName) {
+            heavy.admit(() -> repository.restoreDatabase(tombstone, databaseName));
+        }
+
+        @Override
+        public void dropTombstone(String tombstone) {
+            heavy.admit(() -> repository.dropTombstone(tombstone));
+        }
+
+        @Override
+        public Map<String, Object> createUser(String databaseName, String username, String password) {
+            return light.admit(() -> repository.createUser(databaseName, username, password));
+        }
+
+        @Override
+        public void deleteUser(String databaseName, String username) {
+            light.admit(() -> repository.deleteUser(databaseName, username));
+        }
+
+        @Override
+        public boolean userExists(String databaseName, String username) {
+            return repository.userExists(databaseName, username);
+        }
+
+        @Override
+        public List<String> findUsers(String databaseName) {
+            return repository.findUsers(databaseName);
+        }
+
+        @Override
+        public long getUsedBytes() {
+            return repository.getUsedBytes();
+        }
+
+    }
+
+}
@@ -0,0 +1,35 @@
+package org.cloudfoundry.community.servicebroker.database.repository.routing;
+
+import org.cloudfoundry.community.servicebroker.database.repository.ServiceInstanceRepository;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Places an instance on the server with the fewest instances, as counted by the registry.
+ */
+@Component
+public class FewestDatabasesPlacement implements PlacementStrategy {
+
+    private final ServiceInstanceRepository serviceInstanceRepository;
+
+    public FewestDatabasesPlacement(ServiceInstanceRepository serviceInstanceRepository) {
+        this.serviceInstanceRepository = serviceInstanceRepository;
+    }
+
+    @Override
+    public String getName() {
+        return "fewest-databases";
+    }
+
+    @Override
+    public DatabaseServer choose(List<DatabaseServer> servers) {
+        Map<String, Long> counts = serviceInstanceRepository.countByServer();
+        return servers.stream()
+                .min(Comparator.comparingLong(server -> counts.getOrDefault(server.getId(), 0L)))
+                .orElseThrow(() -> new IllegalStateException("no database servers"));
+    }
+
+}
@@ -0,0 +1,34 @@
+package org.cloudfoundry.community.servicebroker.database.repository.routing;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Places an instance on the server with the most free disk space, which is its configured capacity_gb less the
+ * size of its databases. Servers without a capacity count as having none, so they are chosen by the least data.
+ */
+@Component
+public class MostFreeDiskPlacement implements PlacementStrategy {
+
+    private static final long GB = 1L << 30;
+
+    @Override
+    public String getName() {
+        return "most-free-disk";
+    }
+
+    @Override
+    public DatabaseServer choose(List<DatabaseServer> servers) {
+        return servers.stream()
+                .max(Comparator.comparingLong(this::freeBytes))
+                .orElseThrow(() -> new IllegalStateException("no database servers"));
+    }
+
+    private long freeBytes(DatabaseServer server) {
+        Long capacityGb = server.getSettings().getCapacityGb();
+        return (capacityGb == null ? 0 : capacityGb * GB) - server.getRepository().getUsedBytes();
+    }
+
+}
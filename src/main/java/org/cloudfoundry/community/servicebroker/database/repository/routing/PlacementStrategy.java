@@ -0,0 +1,14 @@
+package org.cloudfoundry.community.servicebroker.database.repository.routing;
+
+import java.util.List;
+
+/**
+ * Chooses the server of a new instance, configured by name in the database.placement property.
+ */
+public interface PlacementStrategy {
+
+    String getName();
+
+    DatabaseServer choose(List<DatabaseServer> servers);
+
+}
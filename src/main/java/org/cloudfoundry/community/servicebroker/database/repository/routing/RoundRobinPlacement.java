@@ -0,0 +1,23 @@
+package org.cloudfoundry.community.servicebroker.database.repository.routing;
+
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Component
+public class RoundRobinPlacement implements PlacementStrategy {
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public String getName() {
+        return "round-robin";
+    }
+
+    @Override
+    public DatabaseServer choose(List<DatabaseServer> servers) {
+        return servers.get(Math.floorMod(next.getAndIncrement(), servers.size()));
+    }
+
+}
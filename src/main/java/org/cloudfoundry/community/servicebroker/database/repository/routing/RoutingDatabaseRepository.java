@@ -0,0 +1,195 @@
+package org.cloudfoundry.community.servicebroker.database.repository.routing;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.repository.DatabaseRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.ServiceInstanceRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.TombstoneRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Spreads the databases of instances over several database servers. The server of spring.datasource.url, named
+ * "default", is joined by the servers of the database.servers property. A new database is placed by the
+ * database.placement strategy and its server is recorded in the registry, to which every later call for the
+ * database is routed. The servers of the most recently used database.routing.cache.size databases are cached.
+ * The DDL sent to each server passes through its own {@link DdlAdmission} lanes.
+ */
+@Component
+@Primary
+@Slf4j
+public class RoutingDatabaseRepository implements DatabaseRepository {
+
+    public static final String DEFAULT_SERVER = "default";
+
+    private final ServiceInstanceRepository serviceInstanceRepository;
+    private final TombstoneRepository tombstoneRepository;
+    private final PlacementStrategy placementStrategy;
+    private final Map<String, DatabaseServer> servers = new LinkedHashMap<>();
+    private final List<DatabaseServer> serverList;
+    private final Cache<String, String> placements;
+    private final Cache<String, String> reservations;
+
+    public RoutingDatabaseRepository(DatabaseRepositoryFactory databaseRepositoryFactory,
+                                     ServiceInstanceRepository serviceInstanceRepository,
+                                     TombstoneRepository tombstoneRepository,
+                                     DdlAdmission ddlAdmission,
+                                     List<PlacementStrategy> placementStrategies,
+                                     @Value("${database.servers:{}}") String serversJson,
+                                     @Value("${database.placement:round-robin}") String placement,
+                                     @Value("${database.routing.cache.size:10000}") long cacheSize) throws IOException {
+        this.serviceInstanceRepository = serviceInstanceRepository;
+        this.tombstoneRepository = tombstoneRepository;
+        placementStrategy = placementStrategies.stream()
+                .filter(strategy -> strategy.getName().equals(placement))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("unknown database.placement " + placement));
+        Map<String, ServerSettings> settings = new ObjectMapper().readValue(serversJson, new TypeReference<Map<String, ServerSettings>>() {
+        });
+        servers.put(DEFAULT_SERVER, new DatabaseServer(DEFAULT_SERVER, ddlAdmission.admit(DEFAULT_SERVER, databaseRepositoryFactory.getDefault()),
+                settings.getOrDefault(DEFAULT_SERVER, new ServerSettings())));
+        settings.forEach((serverId, serverSettings) -> {
+            if (!serverId.equals(DEFAULT_SERVER)) {
+                servers.put(serverId, new DatabaseServer(serverId,
+                        ddlAdmission.admit(serverId, databaseRepositoryFactory.create(serverId, serverSettings)), serverSettings));
+            }
+        });
+        serverList = Collections.unmodifiableList(new ArrayList<>(servers.values()));
+        placements = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+        reservations = CacheBuilder.newBuilder().maximumSize(cacheSize).build(); //an evicted reservation is found in the registry
+        log.info("placing databases on servers {} by {}", servers.keySet(), placement);
+    }
+
+    public List<DatabaseServer> getServers() {
+        return serverList;
+    }
+
+    /**
+     * Places the database of a claimed instance ahead of its creation, such as to bound the parallelism of a bulk
+     * request per server, and reserves the server for the next {@link #createDatabase} call for the database.
+     *
+     * @return the id of the server
+     */
+    public String place(String databaseName) {
+        String serverId = choose(databaseName);
+        reservations.put(databaseName, serverId);
+        return serverId;
+    }
+
+    /**
+     * Keeps the server already recorded for the instance, such as by an earlier attempt to create its database,
+     * and only places the database otherwise.
+     */
+    private String choose(String databaseName) {
+        UUID instanceId = UUID.fromString(databaseName);
+        String serverId = placements.getIfPresent(databaseName);
+        if (serverId == null) {
+            serverId = serviceInstanceRepository.findServerId(instanceId).orElse(null);
+        }
+        if (serverId == null) {
+            serverId = (serverList.size() == 1 ? serverList.get(0) : placementStrategy.choose(serverList)).getId();
+            serviceInstanceRepository.assignServer(instanceId, serverId); //recorded first, so that a failed creation is cleaned up on the right server
+        }
+        placements.put(databaseName, serverId);
+        return serverId;
+    }
+
+    @Override
+    public void createDatabase(String databaseName, String planId, int databaseConnectionsMax) {
+        String serverId = reservations.asMap().remove(databaseName);
+        server(serverId == null ? choose(databaseName) : serverId, databaseName).createDatabase(databaseName, planId, databaseConnectionsMax);
+    }
+
+    @Override
+    public void updateDatabase(String databaseName, String planId, int databaseConnectionsMax) {
+        route(databaseName).updateDatabase(databaseName, planId, databaseConnectionsMax);
+    }
+
+    @Override
+    public void deleteDatabase(String databaseName) {
+        route(databaseName).deleteDatabase(databaseName);
+        placements.invalidate(databaseName);
+    }
+
+    @Override
+    public boolean supportsTombstones() {
+        return serverList.stream().allMatch(server -> server.getRepository().supportsTombstones());
+    }
+
+    @Override
+    public void buryDatabase(String databaseName, String tombstone) {
+        route(databaseName).buryDatabase(databaseName, tombstone);
+        placements.invalidate(databaseName);
+    }
+
+    @Override
+    public void restoreDatabase(String tombstone, String databaseName) {
+        String serverId = tombstoneServerId(tombstone);
+        server(serverId, tombstone).restoreDatabase(tombstone, databaseName);
+        placements.put(databaseName, serverId);
+    }
+
+    @Override
+    public void dropTombstone(String tombstone) {
+        server(tombstoneServerId(tombstone), tombstone).dropTombstone(tombstone);
+    }
+
+    private String tombstoneServerId(String tombstone) {
+        return tombstoneRepository.find(tombstone).map(found -> found.getServerId()).orElse(DEFAULT_SERVER);
+    }
+
+    @Override
+    public Map<String, Object> createUser(String databaseName, String username, String password) {
+        return route(databaseName).createUser(databaseName, username, password);
+    }
+
+    @Override
+    public void deleteUser(String databaseName, String username) {
+        route(databaseName).deleteUser(databaseName, username);
+    }
+
+    @Override
+    public boolean userExists(String databaseName, String username) {
+        return route(databaseName).userExists(databaseName, username);
+    }
+
+    @Override
+    public List<String> findUsers(String databaseName) {
+        return route(databaseName).findUsers(databaseName);
+    }
+
+    @Override
+    public long getUsedBytes() {
+        return serverList.stream().mapToLong(server -> server.getRepository().getUsedBytes()).sum();
+    }
+
+    private DatabaseRepository route(String databaseName) {
+        String serverId = placements.getIfPresent(databaseName);
+        if (serverId == null) { //looked up outside of Cache.get, which holds a lock that pins virtual threads
+            serverId = serviceInstanceRepository.findServerId(UUID.fromString(databaseName)).orElse(DEFAULT_SERVER);
+            placements.put(databaseName, serverId);
+        }
+        return server(serverId, databaseName);
+    }
+
+    private DatabaseRepository server(String serverId, String databaseName) {
+        DatabaseServer server = servers.get(serverId);
+        if (server == null) {
+            throw new IllegalStateException("database " + databaseName + " is placed on unknown server " + serverId);
+        }
+        return server.getRepository();
+    }
+
+}
@@ -0,0 +1,29 @@
+package org.cloudfoundry.community.servicebroker.database.repository.routing;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+/**
+ * Settings of a database server, configured in the database.servers property.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ServerSettings {
+
+    /**
+     * JDBC url of the server, which is ignored for the default server of spring.datasource.url
+     */
+    private String url;
+
+    private String username;
+
+    private String password;
+
+    /**
+     * Disk space available to the databases of the server, used by the most-free-disk placement
+     */
+    @JsonProperty("capacity_gb")
+    private Long capacityGb;
+
+}
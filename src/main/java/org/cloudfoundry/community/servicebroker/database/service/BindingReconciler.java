@@ -0,0 +1,82 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.repository.DatabaseRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.ServiceBindingRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.ServiceInstanceRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Repairs drift between the binding registry and the users of the provisioned databases,
+ * e.g. bindings created before the registry existed, or a failure between creating a user and registering it.
+ * Drift is only repaired once seen by two consecutive runs, as a bind or unbind in progress between its registry
+ * update and its DDL looks like drift to a single run.
+ */
+@Component
+@Slf4j
+public class BindingReconciler {
+
+    private final DatabaseRepository databaseRepository;
+    private final ServiceInstanceRepository serviceInstanceRepository;
+    private final ServiceBindingRepository serviceBindingRepository;
+    private volatile Set<String> previousDrift = new HashSet<>();
+
+    public BindingReconciler(DatabaseRepository databaseRepository,
+                             ServiceInstanceRepository serviceInstanceRepository,
+                             ServiceBindingRepository serviceBindingRepository) {
+        this.databaseRepository = databaseRepository;
+        this.serviceInstanceRepository = serviceInstanceRepository;
+        this.serviceBindingRepository = serviceBindingRepository;
+    }
+
+    @Scheduled(fixedDelayString = "${database.bindings.reconcile-interval:3600000}")
+    public void reconcile() {
+        log.info("reconciling bindings");
+        Set<String> drift = new HashSet<>();
+        List<UUID> instanceIds = serviceInstanceRepository.findServiceInstanceIds();
+        instanceIds.forEach(instanceId -> {
+            try {
+                reconcile(instanceId, drift);
+            } catch (Exception e) {
+                log.warn("failed to reconcile bindings of instance {}", instanceId, e);
+            }
+        });
+        previousDrift = drift;
+        log.info("reconciled bindings of {} instances", instanceIds.size());
+    }
+
+    private void reconcile(UUID instanceId, Set<String> drift) {
+        Set<String> users = new HashSet<>(databaseRepository.findUsers(instanceId.toString()));
+        Set<String> bindings = new HashSet<>(serviceBindingRepository.findBindingIds(instanceId));
+        bindings.stream()
+                .filter(binding -> !users.contains(binding))
+                .filter(binding -> confirmed(drift, "binding " + binding + " of instance " + instanceId + " has no user"))
+                .forEach(binding -> {
+                    log.warn("binding {} of instance {} has no user, removing it from the registry", binding, instanceId);
+                    serviceBindingRepository.delete(instanceId, binding);
+                });
+        users.stream()
+                .filter(user -> !bindings.contains(user))
+                .filter(user -> confirmed(drift, "user " + user + " of instance " + instanceId + " is not registered"))
+                .forEach(user -> {
+                    log.warn("user {} of instance {} is not registered, adding it to the registry", user, instanceId);
+                    serviceBindingRepository.save(instanceId, user);
+                });
+    }
+
+    private boolean confirmed(Set<String> drift, String description) {
+        drift.add(description);
+        if (previousDrift.contains(description)) {
+            return true;
+        }
+        log.info("{}, repairing it if the next run still finds it", description);
+        return false;
+    }
+
+}
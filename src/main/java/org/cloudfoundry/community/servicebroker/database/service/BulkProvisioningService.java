@@ -0,0 +1,158 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.repository.ServiceInstanceRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.routing.RoutingDatabaseRepository;
+import org.cloudfoundry.community.servicebroker.model.Catalog;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Provisions many instances at once, for onboarding and disaster recovery. Instances of a service or plan that is not
+ * in the catalog are rejected, the others are claimed in the registry with a single batch and placed on their
+ * servers, then the databases of each server are created by database.bulk.parallelism threads of its own, and each
+ * result is reported as soon as it is known. The threads of a server are shared by all bulk requests, so that the
+ * parallelism is bounded by the connection pool of each server however many requests run at once, of which the
+ * default leaves a connection free for service broker API calls. Should the results no longer be consumed, such as
+ * when the client disconnects, the databases already submitted are still created, so that no claimed instance is
+ * left in progress; those still queued when the broker stops are failed by the {@link StaleOperationSweeper}.
+ */
+@Service
+@Slf4j
+public class BulkProvisioningService implements DisposableBean {
+
+    private final DatabaseCreationService databaseCreationService;
+    private final ServiceInstanceRepository serviceInstanceRepository;
+    private final RoutingDatabaseRepository routingDatabaseRepository;
+    private final Map<String, Set<String>> plansByService = new HashMap<>();
+    private final int parallelism;
+    private final ConcurrentMap<String, ExecutorService> executors = new ConcurrentHashMap<>();
+
+    public BulkProvisioningService(DatabaseCreationService databaseCreationService,
+                                   ServiceInstanceRepository serviceInstanceRepository,
+                                   RoutingDatabaseRepository routingDatabaseRepository,
+                                   Catalog catalog,
+                                   @Value("${database.bulk.parallelism:2}") int parallelism) {
+        this.databaseCreationService = databaseCreationService;
+        this.serviceInstanceRepository = serviceInstanceRepository;
+        this.routingDatabaseRepository = routingDatabaseRepository;
+        catalog.getServiceDefinitions().forEach(serviceDefinition -> plansByService.put(serviceDefinition.getId(),
+                serviceDefinition.getPlans().stream().map(plan -> plan.getId()).collect(Collectors.toSet())));
+        this.parallelism = parallelism;
+    }
+
+    public void provision(List<CreateServiceInstanceRequest> requests, Consumer<ProvisioningResult> results) throws InterruptedException {
+        log.info("provisioning {} instances in bulk", requests.size());
+        List<CreateServiceInstanceRequest> valid = new ArrayList<>();
+        requests.forEach(request -> {
+            String rejection = validate(request);
+            if (rejection == null) {
+                valid.add(request);
+            } else {
+                results.accept(new ProvisioningResult(request.getServiceInstanceId(), ProvisioningResult.REJECTED, rejection));
+            }
+        });
+        List<CreateServiceInstanceRequest> claimed = valid.isEmpty()
+                ? Collections.emptyList()
+                : serviceInstanceRepository.claimAll(valid, OperationState.IN_PROGRESS);
+        Set<String> claimedIds = claimed.stream().map(CreateServiceInstanceRequest::getServiceInstanceId).collect(Collectors.toSet());
+        Set<String> seen = new HashSet<>();
+        valid.stream()
+                .map(CreateServiceInstanceRequest::getServiceInstanceId)
+                .forEach(id -> {
+                    if (!seen.add(id)) {
+                        results.accept(new ProvisioningResult(id, ProvisioningResult.EXISTS, "instance is listed more than once in the request"));
+                    } else if (!claimedIds.contains(id)) {
+                        results.accept(new ProvisioningResult(id, ProvisioningResult.EXISTS, "instance already exists"));
+                    }
+                });
+        if (claimed.isEmpty()) {
+            return;
+        }
+        BlockingQueue<Future<ProvisioningResult>> completed = new LinkedBlockingQueue<>();
+        claimed.forEach(request -> {
+            ExecutorService executor = executors.computeIfAbsent(routingDatabaseRepository.place(request.getServiceInstanceId()),
+                    serverId -> newExecutor(serverId, parallelism));
+            new ExecutorCompletionService<>(executor, completed).submit(() -> provision(request));
+        });
+        int succeeded = 0;
+        try {
+            for (int i = 0; i < claimed.size(); i++) {
+                ProvisioningResult result = completed.take().get();
+                succeeded += result.getState().equals(ProvisioningResult.SUCCEEDED) ? 1 : 0;
+                results.accept(result);
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause()); //provision(request) reports failures as results
+        }
+        log.info("provisioned {} of {} instances in bulk", succeeded, claimed.size());
+    }
+
+    private String validate(CreateServiceInstanceRequest request) {
+        Set<String> plans = plansByService.get(request.getServiceDefinitionId());
+        if (plans == null) {
+            return "service " + request.getServiceDefinitionId() + " is not in the catalog";
+        }
+        if (!plans.contains(request.getPlanId())) {
+            return "plan " + request.getPlanId() + " is not a plan of service " + request.getServiceDefinitionId();
+        }
+        return null;
+    }
+
+    private static ExecutorService newExecutor(String serverId, int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "bulk-provisioning-" + serverId + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true); //servers without bulk work keep no threads
+        return executor;
+    }
+
+    private ProvisioningResult provision(CreateServiceInstanceRequest request) {
+        String id = request.getServiceInstanceId();
+        try {
+            databaseCreationService.provisionClaimed(UUID.fromString(id), request.getPlanId());
+            return new ProvisioningResult(id, ProvisioningResult.SUCCEEDED, null);
+        } catch (RuntimeException e) {
+            return new ProvisioningResult(id, ProvisioningResult.FAILED, e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executors.forEach((serverId, executor) -> {
+            List<Runnable> abandoned = executor.shutdownNow();
+            if (!abandoned.isEmpty()) {
+                log.warn("{} instances queued for bulk provisioning on server {} abandoned", abandoned.size(), serverId);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import lombok.SneakyThrows;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates binding passwords. Binds draw from one of a fixed set of SecureRandoms, seeded on startup, so that
+ * concurrent binds rarely contend for the lock of an instance, and never block on the entropy pool. The set does not
+ * grow with the number of request threads, which may be virtual threads, each of which would seed an instance of its own.
+ * The alphabet is restricted to characters that need no escaping in SQL literals or in the credential URIs.
+ */
+@Component
+public class CredentialGenerator {
+
+    static final String DEFAULT_ALPHABET = "0123456789abcdefghijklmnopqrstuv";
+
+    private final String alphabet;
+    private final int length;
+    private final SecureRandom[] randoms;
+
+    public CredentialGenerator(@Value("${database.credentials.alphabet:" + DEFAULT_ALPHABET + "}") String alphabet,
+                               @Value("${database.credentials.length:26}") int length,
+                               @Value("${database.credentials.algorithm:SHA1PRNG}") String algorithm,
+                               @Value("${database.credentials.random-instances:0}") int randomInstances) {
+        Assert.isTrue(alphabet.matches("[A-Za-z0-9._~-]{2,}"), "password alphabet must contain at least two of the characters A-Z a-z 0-9 . _ ~ -");
+        Assert.isTrue(length > 0, "password length must be positive");
+        this.alphabet = alphabet;
+        this.length = length;
+        randoms = new SecureRandom[randomInstances > 0 ? randomInstances : Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < randoms.length; i++) {
+            randoms[i] = newSecureRandom(algorithm); //fails on startup if the algorithm is not available
+            randoms[i].nextBytes(new byte[1]); //seeds the instance
+        }
+    }
+
+    @SneakyThrows
+    private static SecureRandom newSecureRandom(String algorithm) {
+        return SecureRandom.getInstance(algorithm);
+    }
+
+    public String generatePassword() {
+        SecureRandom random = randoms[ThreadLocalRandom.current().nextInt(randoms.length)];
+        char[] password = new char[length];
+        int size = alphabet.length();
+        if (Integer.bitCount(size) == 1 && size <= 256) { //masking random bytes is unbiased for power of two alphabets
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            for (int i = 0; i < length; i++) {
+                password[i] = alphabet.charAt(bytes[i] & (size - 1));
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                password[i] = alphabet.charAt(random.nextInt(size));
+            }
+        }
+        return new String(password);
+    }
+
+}
@@ -16,7 +16,9 @@
 package org.cloudfoundry.community.servicebroker.database.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.metrics.MetricsRegistry;
 import org.cloudfoundry.community.servicebroker.database.repository.DatabaseRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.ServiceBindingRepository;
 import org.cloudfoundry.community.servicebroker.database.repository.ServiceInstanceRepository;
 import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
 import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceBindingExistsException;
@@ -27,10 +29,9 @@ import org.cloudfoundry.community.servicebroker.model.ServiceInstanceBinding;
 import org.cloudfoundry.community.servicebroker.service.ServiceInstanceBindingService;
 import org.springframework.stereotype.Service;
 
-import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
-import java.util.Random;
 import java.util.UUID;
 
 @Service
@@ -39,21 +40,48 @@ public class DatabaseBindingService implements ServiceInstanceBindingService {
 
     private final DatabaseRepository databaseRepository;
     private final ServiceInstanceRepository serviceInstanceRepository;
-    private final Random random;
+    private final ServiceBindingRepository serviceBindingRepository;
+    private final MetricsRegistry metricsRegistry;
+    private final CredentialGenerator credentialGenerator;
+    private final InFlightRequests inFlightRequests;
 
-    public DatabaseBindingService(DatabaseRepository databaseRepository, ServiceInstanceRepository serviceInstanceRepository, Random random) {
+    public DatabaseBindingService(DatabaseRepository databaseRepository, ServiceInstanceRepository serviceInstanceRepository,
+                                  ServiceBindingRepository serviceBindingRepository, MetricsRegistry metricsRegistry, CredentialGenerator credentialGenerator,
+                                  InFlightRequests inFlightRequests) {
         this.databaseRepository = databaseRepository;
         this.serviceInstanceRepository = serviceInstanceRepository;
-        this.random = random;
+        this.serviceBindingRepository = serviceBindingRepository;
+        this.metricsRegistry = metricsRegistry;
+        this.credentialGenerator = credentialGenerator;
+        this.inFlightRequests = inFlightRequests;
     }
 
     @Override
     public ServiceInstanceBinding createServiceInstanceBinding(CreateServiceInstanceBindingRequest createServiceInstanceBindingRequest)
             throws ServiceInstanceBindingExistsException, ServiceBrokerException {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            ServiceInstanceBinding binding = inFlightRequests.run("bind", createServiceInstanceBindingRequest.getBindingId(),
+                    Arrays.asList(createServiceInstanceBindingRequest.getServiceInstanceId(), createServiceInstanceBindingRequest.getServiceDefinitionId(),
+                            createServiceInstanceBindingRequest.getPlanId(), createServiceInstanceBindingRequest.getAppGuid()),
+                    () -> bind(createServiceInstanceBindingRequest),
+                    () -> new ServiceInstanceBindingExistsException(getServiceInstanceBinding(createServiceInstanceBindingRequest,
+                            UUID.fromString(createServiceInstanceBindingRequest.getServiceInstanceId()),
+                            createServiceInstanceBindingRequest.getBindingId(), Collections.emptyMap())));
+            succeeded = true;
+            return binding;
+        } finally {
+            metricsRegistry.recordOperation("bind", start, succeeded);
+        }
+    }
+
+    private ServiceInstanceBinding bind(CreateServiceInstanceBindingRequest createServiceInstanceBindingRequest)
+            throws ServiceInstanceBindingExistsException, ServiceBrokerException {
         UUID serviceInstanceId = UUID.fromString(createServiceInstanceBindingRequest.getServiceInstanceId());
         String bindingId = createServiceInstanceBindingRequest.getBindingId();
         verifyServiceInstanceExists(serviceInstanceId);
-        if (databaseRepository.userExists(serviceInstanceId.toString(), bindingId)) {
+        if (serviceBindingRepository.exists(serviceInstanceId, bindingId)) {
             throw new ServiceInstanceBindingExistsException(getServiceInstanceBinding(
                     createServiceInstanceBindingRequest, serviceInstanceId, bindingId, Collections.emptyMap()));
         } else {
@@ -63,9 +91,15 @@ public class DatabaseBindingService implements ServiceInstanceBindingService {
 
     private ServiceInstanceBinding createBinding(CreateServiceInstanceBindingRequest createServiceInstanceBindingRequest, UUID serviceInstanceId, String bindingId) {
         log.info("creating binding {} for instance {}", bindingId, serviceInstanceId);
-        String password = new BigInteger(130, random).toString(32);
-        Map<String, Object> credentials = databaseRepository.createUser(
-                serviceInstanceId.toString(), bindingId, password);
+        String password = credentialGenerator.generatePassword();
+        serviceBindingRepository.save(serviceInstanceId, bindingId); //saved first, so that a concurrent reconciliation never sees a user without a binding
+        Map<String, Object> credentials;
+        try {
+            credentials = databaseRepository.createUser(serviceInstanceId.toString(), bindingId, password);
+        } catch (RuntimeException e) {
+            serviceBindingRepository.delete(serviceInstanceId, bindingId);
+            throw e;
+        }
         ServiceInstanceBinding binding = getServiceInstanceBinding(
                 createServiceInstanceBindingRequest, serviceInstanceId, bindingId, credentials);
         log.info("created binding {} for instance {}", bindingId, serviceInstanceId);
@@ -90,10 +124,23 @@ public class DatabaseBindingService implements ServiceInstanceBindingService {
     @Override
     public ServiceInstanceBinding deleteServiceInstanceBinding(DeleteServiceInstanceBindingRequest deleteServiceInstanceBindingRequest)
             throws ServiceBrokerException {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            ServiceInstanceBinding binding = unbind(deleteServiceInstanceBindingRequest);
+            succeeded = true;
+            return binding;
+        } finally {
+            metricsRegistry.recordOperation("unbind", start, succeeded);
+        }
+    }
+
+    private ServiceInstanceBinding unbind(DeleteServiceInstanceBindingRequest deleteServiceInstanceBindingRequest)
+            throws ServiceBrokerException {
         UUID serviceInstanceId = UUID.fromString(deleteServiceInstanceBindingRequest.getInstance().getServiceInstanceId());
         String bindingId = deleteServiceInstanceBindingRequest.getBindingId();
         verifyServiceInstanceExists(serviceInstanceId);
-        if (databaseRepository.userExists(serviceInstanceId.toString(), bindingId)) {
+        if (serviceBindingRepository.exists(serviceInstanceId, bindingId)) {
             return deleteBinding(serviceInstanceId, bindingId);
         } else {
             log.info("binding {} of instance {} does not exist", bindingId, serviceInstanceId);
@@ -104,6 +151,7 @@ public class DatabaseBindingService implements ServiceInstanceBindingService {
     private ServiceInstanceBinding deleteBinding(UUID serviceInstanceId, String bindingId) {
         log.info("deleting binding {} for instance {}", bindingId, serviceInstanceId);
         databaseRepository.deleteUser(serviceInstanceId.toString(), bindingId);
+        serviceBindingRepository.delete(serviceInstanceId, bindingId);
         ServiceInstanceBinding binding = new ServiceInstanceBinding(bindingId, serviceInstanceId.toString(), null, null, null);
         log.info("deleted binding {} for instance {}", bindingId, serviceInstanceId);
         return binding;
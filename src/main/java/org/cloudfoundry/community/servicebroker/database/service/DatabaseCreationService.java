@@ -15,24 +15,36 @@
  */
 package org.cloudfoundry.community.servicebroker.database.service;
 
-import lombok.SneakyThrows;
+import com.google.common.util.concurrent.Striped;
 import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.metrics.MetricsRegistry;
 import org.cloudfoundry.community.servicebroker.database.repository.DatabaseRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.ServiceBindingRepository;
 import org.cloudfoundry.community.servicebroker.database.repository.ServiceInstanceRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.routing.AdmissionRejectedException;
 import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
 import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceDoesNotExistException;
 import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceExistsException;
 import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceUpdateNotSupportedException;
 import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
 import org.cloudfoundry.community.servicebroker.model.DeleteServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
 import org.cloudfoundry.community.servicebroker.model.ServiceInstance;
+import org.cloudfoundry.community.servicebroker.model.ServiceInstanceLastOperation;
 import org.cloudfoundry.community.servicebroker.model.UpdateServiceInstanceRequest;
 import org.cloudfoundry.community.servicebroker.service.ServiceInstanceService;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import static org.cloudfoundry.community.servicebroker.database.repository.ServiceInstanceRepository.DEPROVISION;
+import static org.cloudfoundry.community.servicebroker.database.repository.ServiceInstanceRepository.PROVISION;
+import static org.cloudfoundry.community.servicebroker.database.repository.ServiceInstanceRepository.UPDATE;
 
 @Service
 @Slf4j
@@ -40,59 +52,285 @@ public class DatabaseCreationService implements ServiceInstanceService {
 
     private final DatabaseRepository databaseRepository;
     private final ServiceInstanceRepository serviceInstanceRepository;
+    private final ServiceBindingRepository serviceBindingRepository;
+    private final ProvisioningExecutor provisioningExecutor;
+    private final MetricsRegistry metricsRegistry;
+    private final InFlightRequests inFlightRequests;
+    private final TombstoneService tombstoneService;
     private final int databaseConnectionsMax;
+    private final int admissionRetries;
+    private final Striped<Lock> instanceLocks;
 
     public DatabaseCreationService(
             DatabaseRepository databaseRepository,
             ServiceInstanceRepository serviceInstanceRepository,
-            @Value("${database.connections.max:-1}") int databaseConnectionsMax) {
+            ServiceBindingRepository serviceBindingRepository,
+            ProvisioningExecutor provisioningExecutor,
+            MetricsRegistry metricsRegistry,
+            InFlightRequests inFlightRequests,
+            TombstoneService tombstoneService,
+            @Value("${database.connections.max:-1}") int databaseConnectionsMax,
+            @Value("${database.provisioning.lock-stripes:1024}") int lockStripes,
+            @Value("${database.admission.retries:5}") int admissionRetries) {
         this.databaseRepository = databaseRepository;
         this.serviceInstanceRepository = serviceInstanceRepository;
+        this.serviceBindingRepository = serviceBindingRepository;
+        this.provisioningExecutor = provisioningExecutor;
+        this.metricsRegistry = metricsRegistry;
+        this.inFlightRequests = inFlightRequests;
+        this.tombstoneService = tombstoneService;
         this.databaseConnectionsMax = databaseConnectionsMax;
+        this.admissionRetries = admissionRetries;
+        instanceLocks = Striped.lazyWeakLock(lockStripes);
     }
 
     @Override
     public ServiceInstance createServiceInstance(CreateServiceInstanceRequest createServiceInstanceRequest)
             throws ServiceInstanceExistsException, ServiceBrokerException {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            ServiceInstance serviceInstance = inFlightRequests.run(PROVISION, createServiceInstanceRequest.getServiceInstanceId(),
+                    Arrays.asList(createServiceInstanceRequest.getServiceDefinitionId(), createServiceInstanceRequest.getPlanId(),
+                            createServiceInstanceRequest.getOrganizationGuid(), createServiceInstanceRequest.getSpaceGuid()),
+                    () -> provision(createServiceInstanceRequest),
+                    () -> new ServiceInstanceExistsException(new ServiceInstance(createServiceInstanceRequest)));
+            succeeded = true;
+            return serviceInstance;
+        } finally {
+            metricsRegistry.recordOperation(PROVISION, start, succeeded);
+        }
+    }
+
+    /**
+     * Requests for the same instance are serialized up to the point where the operation is recorded as in progress,
+     * whereas requests for distinct instances run in parallel, short of sharing a lock stripe.
+     */
+    private ServiceInstance provision(CreateServiceInstanceRequest createServiceInstanceRequest)
+            throws ServiceInstanceExistsException, ServiceBrokerException {
         UUID serviceInstanceId = UUID.fromString(createServiceInstanceRequest.getServiceInstanceId());
-        serviceInstanceRepository.findServiceInstance(serviceInstanceId).ifPresent(this::throwAlreadyExistsException);
-        log.info("provisioning {}", serviceInstanceId);
-        serviceInstanceRepository.save(createServiceInstanceRequest);
-        databaseRepository.createDatabase(serviceInstanceId.toString(), databaseConnectionsMax);
-        log.info("provisioned {}", serviceInstanceId);
-        return new ServiceInstance(createServiceInstanceRequest);
+        Lock lock = instanceLocks.get(serviceInstanceId);
+        lock.lock();
+        try {
+            if (!serviceInstanceRepository.claim(createServiceInstanceRequest, OperationState.IN_PROGRESS)) {
+                throw new ServiceInstanceExistsException(serviceInstanceRepository.findServiceInstance(serviceInstanceId)
+                        .orElseGet(() -> new ServiceInstance(createServiceInstanceRequest)));
+            }
+        } finally {
+            lock.unlock();
+        }
+        Runnable provision = operation(serviceInstanceId, PROVISION, createServiceInstanceRequest.hasAsyncClient(),
+                () -> createServiceInstance(serviceInstanceId, createServiceInstanceRequest.getPlanId()));
+        if (createServiceInstanceRequest.hasAsyncClient()) {
+            log.info("provisioning {} asynchronously", serviceInstanceId);
+            submit(serviceInstanceId, PROVISION, provision, () -> serviceInstanceRepository.delete(serviceInstanceId));
+            return inProgress(new ServiceInstance(createServiceInstanceRequest), PROVISION);
+        } else {
+            try {
+                provision.run();
+            } catch (AdmissionRejectedException e) {
+                serviceInstanceRepository.delete(serviceInstanceId); //nothing was created, so that the retry of the rejected request can claim the instance again
+                throw e;
+            }
+            return new ServiceInstance(createServiceInstanceRequest);
+        }
+    }
+
+    /**
+     * Provisions an instance already claimed in the registry, such as by a bulk request, on the calling thread.
+     */
+    void provisionClaimed(UUID serviceInstanceId, String planId) {
+        operation(serviceInstanceId, PROVISION, true, () -> createServiceInstance(serviceInstanceId, planId)).run();
     }
 
-    @SneakyThrows
-    private void throwAlreadyExistsException(ServiceInstance serviceInstance) {
-        throw new ServiceInstanceExistsException(serviceInstance);
+    private void createServiceInstance(UUID serviceInstanceId, String planId) {
+        log.info("provisioning {}", serviceInstanceId);
+        databaseRepository.createDatabase(serviceInstanceId.toString(), planId, databaseConnectionsMax);
+        serviceInstanceRepository.completeOperation(serviceInstanceId, PROVISION, OperationState.SUCCEEDED, null);
+        log.info("provisioned {}", serviceInstanceId);
     }
 
     @Override
     public ServiceInstance deleteServiceInstance(DeleteServiceInstanceRequest deleteServiceInstanceRequest)
             throws ServiceBrokerException {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            ServiceInstance serviceInstance = deprovision(deleteServiceInstanceRequest);
+            succeeded = true;
+            return serviceInstance;
+        } finally {
+            metricsRegistry.recordOperation(DEPROVISION, start, succeeded);
+        }
+    }
+
+    private ServiceInstance deprovision(DeleteServiceInstanceRequest deleteServiceInstanceRequest)
+            throws ServiceBrokerException {
         UUID serviceInstanceId = UUID.fromString(deleteServiceInstanceRequest.getServiceInstanceId());
-        log.info("deprovisioning {}", serviceInstanceId);
-        Optional<ServiceInstance> instance = serviceInstanceRepository.findServiceInstance(serviceInstanceId);
-        instance.ifPresent(serviceInstance -> deleteServiceInstance(serviceInstanceId));
-        return instance.orElse(null);
+        Optional<ServiceInstance> instance;
+        Lock lock = instanceLocks.get(serviceInstanceId);
+        lock.lock();
+        try {
+            instance = serviceInstanceRepository.findServiceInstance(serviceInstanceId);
+            if (!instance.isPresent()) {
+                log.info("service instance {} not found, nothing to deprovision", serviceInstanceId);
+                return null;
+            }
+            if (!serviceInstanceRepository.startOperation(serviceInstanceId, DEPROVISION)) {
+                throw new ServiceBrokerException("another operation is in progress for instance " + serviceInstanceId);
+            }
+        } finally {
+            lock.unlock();
+        }
+        ServiceInstance serviceInstance = instance.get();
+        Runnable deprovision = operation(serviceInstanceId, DEPROVISION, deleteServiceInstanceRequest.hasAsyncClient(),
+                () -> deleteServiceInstance(serviceInstanceId, serviceInstance));
+        if (deleteServiceInstanceRequest.hasAsyncClient()) {
+            log.info("deprovisioning {} asynchronously", serviceInstanceId);
+            submit(serviceInstanceId, DEPROVISION, deprovision, () -> serviceInstanceRepository.completeOperation(
+                    serviceInstanceId, DEPROVISION, OperationState.FAILED, "deprovision rejected, try again later"));
+            return inProgress(serviceInstance, DEPROVISION);
+        } else {
+            deprovision.run();
+            return serviceInstance;
+        }
     }
 
-    private void deleteServiceInstance(UUID serviceInstanceId) {
-        databaseRepository.deleteDatabase(serviceInstanceId.toString());
+    private void deleteServiceInstance(UUID serviceInstanceId, ServiceInstance serviceInstance) {
+        log.info("deprovisioning {}", serviceInstanceId);
+        if (tombstoneService.isEnabled()) {
+            tombstoneService.bury(serviceInstance);
+        } else {
+            databaseRepository.deleteDatabase(serviceInstanceId.toString());
+        }
+        serviceBindingRepository.deleteAll(serviceInstanceId);
         serviceInstanceRepository.delete(serviceInstanceId);
         log.info("deprovisioned {}", serviceInstanceId);
     }
 
+    /**
+     * Runs the work of an operation, which is timed separately from the API call, as the call returns before
+     * the work is done when the client accepts asynchronous operations.
+     */
+    private void runOperation(UUID serviceInstanceId, String operation, Runnable work) {
+        long start = System.nanoTime();
+        String outcome = "failure";
+        try {
+            work.run();
+            outcome = "success";
+        } catch (RuntimeException e) {
+            log.error("{} of {} failed", operation, serviceInstanceId, e);
+            serviceInstanceRepository.completeOperation(serviceInstanceId, operation, OperationState.FAILED, operation + " failed - " + e.getMessage());
+            throw e;
+        } finally {
+            metricsRegistry.timer("broker_operation_work_seconds", "Duration of the work of provisioning and deprovisioning",
+                    "operation", operation, "outcome", outcome).recordSince(start);
+        }
+    }
+
+    /**
+     * @param background whether the operation runs in the background, in which case its DDL is retried when not admitted
+     */
+    private Runnable operation(UUID serviceInstanceId, String operation, boolean background, Runnable work) {
+        return () -> runOperation(serviceInstanceId, operation, background ? () -> retryRejected(serviceInstanceId, work) : work);
+    }
+
+    /**
+     * Retries work that runs in the background, rather than on behalf of a request that could be retried by its
+     * client, when its DDL is not admitted, after the delay suggested by the rejection. The operation stays in
+     * progress meanwhile, and only fails once the work is rejected database.admission.retries times in a row.
+     */
+    private void retryRejected(UUID serviceInstanceId, Runnable work) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                work.run();
+                return;
+            } catch (AdmissionRejectedException e) {
+                if (attempt > admissionRetries) {
+                    throw e;
+                }
+                log.info("DDL for {} was not admitted, retrying in {}s", serviceInstanceId, e.getRetryAfterSeconds());
+                try {
+                    TimeUnit.SECONDS.sleep(e.getRetryAfterSeconds());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void submit(UUID serviceInstanceId, String operationName, Runnable operation, Runnable onRejection) throws ServiceBrokerException {
+        try {
+            provisioningExecutor.execute(operation, () -> serviceInstanceRepository.completeOperation(
+                    serviceInstanceId, operationName, OperationState.FAILED, operationName + " abandoned as the broker stopped, try again"));
+        } catch (ServiceBrokerException e) {
+            onRejection.run();
+            throw e;
+        }
+    }
+
+    private ServiceInstance inProgress(ServiceInstance serviceInstance, String operation) {
+        return serviceInstance
+                .withLastOperation(new ServiceInstanceLastOperation(operation + " in progress", OperationState.IN_PROGRESS))
+                .withAsync(true);
+    }
+
     @Override
     public ServiceInstance updateServiceInstance(UpdateServiceInstanceRequest updateServiceInstanceRequest)
             throws ServiceInstanceUpdateNotSupportedException, ServiceBrokerException, ServiceInstanceDoesNotExistException {
-        throw new ServiceInstanceUpdateNotSupportedException("service update not supported");
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            ServiceInstance serviceInstance = update(updateServiceInstanceRequest);
+            succeeded = true;
+            return serviceInstance;
+        } finally {
+            metricsRegistry.recordOperation(UPDATE, start, succeeded);
+        }
+    }
+
+    /**
+     * Changes the plan of an instance in place, by applying the connection limit and settings of the new plan
+     * to its database, which takes effect for new connections. The update is always synchronous.
+     */
+    private ServiceInstance update(UpdateServiceInstanceRequest updateServiceInstanceRequest)
+            throws ServiceBrokerException, ServiceInstanceDoesNotExistException {
+        UUID serviceInstanceId = UUID.fromString(updateServiceInstanceRequest.getServiceInstanceId());
+        String planId = updateServiceInstanceRequest.getPlanId();
+        Lock lock = instanceLocks.get(serviceInstanceId);
+        lock.lock();
+        try {
+            Optional<ServiceInstance> instance = serviceInstanceRepository.findServiceInstance(serviceInstanceId);
+            if (!instance.isPresent()) {
+                throw new ServiceInstanceDoesNotExistException(serviceInstanceId.toString());
+            }
+            if (planId == null || planId.equals(instance.get().getPlanId())) {
+                log.info("service instance {} already has plan {}, nothing to update", serviceInstanceId, instance.get().getPlanId());
+                return instance.get();
+            }
+            if (!serviceInstanceRepository.startOperation(serviceInstanceId, UPDATE)) {
+                throw new ServiceBrokerException("another operation is in progress for instance " + serviceInstanceId);
+            }
+        } finally {
+            lock.unlock();
+        }
+        runOperation(serviceInstanceId, UPDATE, () -> {
+            log.info("updating {} to plan {}", serviceInstanceId, planId);
+            databaseRepository.updateDatabase(serviceInstanceId.toString(), planId, databaseConnectionsMax);
+            serviceInstanceRepository.updatePlan(serviceInstanceId, planId);
+            serviceInstanceRepository.completeOperation(serviceInstanceId, UPDATE, OperationState.SUCCEEDED, null);
+            log.info("updated {} to plan {}", serviceInstanceId, planId);
+        });
+        return serviceInstanceRepository.findServiceInstance(serviceInstanceId).orElse(null);
     }
 
     @Override
     public ServiceInstance getServiceInstance(String id) {
-        return serviceInstanceRepository.findServiceInstance(UUID.fromString(id)).orElse(null);
+        long start = System.nanoTime();
+        ServiceInstance serviceInstance = serviceInstanceRepository.findServiceInstance(UUID.fromString(id)).orElse(null);
+        metricsRegistry.recordOperation("fetch", start, true);
+        return serviceInstance;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.metrics.StatsProvider;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the requests in progress on this broker, keyed by kind and id, such as a provision of an instance
+ * or a bind of a binding. A request arriving while an identical one is in progress, typically a retry of the
+ * Cloud Controller after a timeout, waits for the first one and gets its result or its exception, rather than
+ * running the same DDL again. A request with the same id but different parameters is rejected at once.
+ */
+@Component
+@Slf4j
+public class InFlightRequests implements StatsProvider {
+
+    private final ConcurrentMap<String, InFlight> requests = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    /**
+     * @param parameters compared with {@link Object#equals} to those of a request in progress with the same id
+     * @param conflict   the exception thrown when a request in progress has the same id but different parameters
+     * @return the result of the work, or of the identical request in progress
+     */
+    @SneakyThrows
+    public <T> T run(String kind, String id, Object parameters, Callable<T> work, Supplier<? extends Exception> conflict) {
+        String key = kind + ":" + id;
+        InFlight request = new InFlight(parameters);
+        InFlight inProgress = requests.putIfAbsent(key, request);
+        if (inProgress == null) {
+            try {
+                T result = work.call();
+                request.future.complete(result);
+                return result;
+            } catch (Throwable e) {
+                request.future.completeExceptionally(e);
+                throw e;
+            } finally {
+                requests.remove(key, request);
+            }
+        }
+        if (!Objects.equals(inProgress.parameters, parameters)) {
+            count(kind + "_conflicts");
+            log.warn("{} {} is in progress with different parameters", kind, id);
+            throw conflict.get();
+        }
+        count(kind + "_coalesced");
+        log.info("{} {} is in progress, waiting for its result", kind, id);
+        try {
+            @SuppressWarnings("unchecked")
+            T result = (T) inProgress.future.join();
+            return result;
+        } catch (CompletionException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void count(String counter) {
+        counters.computeIfAbsent(counter, name -> new AtomicLong()).incrementAndGet();
+    }
+
+    @Override
+    public String getStatsName() {
+        return "in_flight";
+    }
+
+    @Override
+    public Map<String, Number> getStats() {
+        Map<String, Number> stats = new TreeMap<>();
+        counters.forEach((counter, count) -> stats.put(counter, count.get()));
+        stats.put("requests", requests.size());
+        return stats;
+    }
+
+    private static class InFlight {
+
+        private final Object parameters;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        private InFlight(Object parameters) {
+            this.parameters = parameters;
+        }
+
+    }
+
+}
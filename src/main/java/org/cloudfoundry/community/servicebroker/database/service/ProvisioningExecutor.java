@@ -0,0 +1,98 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.config.VirtualThreads;
+import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded executor for provisioning and deprovisioning requests that accept incomplete (asynchronous) operations.
+ * Its threads are virtual when database.virtual-threads is true, while the number of threads and the queue
+ * still bound the operations in progress. Operations still queued when the broker stops, once the running ones
+ * have had database.provisioning.shutdown-timeout seconds to finish, are abandoned and recorded as such.
+ */
+@Component
+@Slf4j
+public class ProvisioningExecutor implements DisposableBean {
+
+    private final ThreadPoolExecutor executor;
+    private final long shutdownTimeoutSeconds;
+
+    public ProvisioningExecutor(@Value("${database.provisioning.threads:4}") int threads,
+                                @Value("${database.provisioning.queue:100}") int queueCapacity,
+                                @Value("${database.virtual-threads:false}") boolean virtualThreads,
+                                @Value("${database.provisioning.shutdown-timeout:30}") long shutdownTimeoutSeconds) {
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                virtualThreads ? VirtualThreads.factory("provisioning-") : platformThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        log.info("provisioning executor with {} {} threads and queue capacity {}", threads, virtualThreads ? "virtual" : "platform", queueCapacity);
+    }
+
+    private static ThreadFactory platformThreadFactory() {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "provisioning-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @param onAbandon records the operation as failed, should the broker stop before the operation runs
+     */
+    public void execute(Runnable task, Runnable onAbandon) throws ServiceBrokerException {
+        try {
+            executor.execute(new Operation(task, onAbandon));
+        } catch (RejectedExecutionException e) {
+            throw new ServiceBrokerException("too many operations in progress, try again later");
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+            List<Runnable> abandoned = executor.shutdownNow(); //interrupts the running operations, which fail on their own
+            log.warn("provisioning executor did not terminate, {} queued operations abandoned", abandoned.size());
+            abandoned.forEach(operation -> ((Operation) operation).abandon());
+        }
+    }
+
+    private static class Operation implements Runnable {
+
+        private final Runnable task;
+        private final Runnable onAbandon;
+
+        private Operation(Runnable task, Runnable onAbandon) {
+            this.task = task;
+            this.onAbandon = onAbandon;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        private void abandon() {
+            try {
+                onAbandon.run();
+            } catch (RuntimeException e) {
+                log.error("failed to record an abandoned operation, it fails once stale", e);
+            }
+        }
+
+    }
+
+}
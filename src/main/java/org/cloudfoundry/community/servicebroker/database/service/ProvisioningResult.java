@@ -0,0 +1,28 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Value;
+
+/**
+ * The outcome of provisioning one instance of a bulk request.
+ */
+@Value
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProvisioningResult {
+
+    public static final String SUCCEEDED = "succeeded";
+    public static final String FAILED = "failed";
+    public static final String EXISTS = "exists";
+    public static final String REJECTED = "rejected";
+
+    @JsonProperty("service_instance_id")
+    private final String serviceInstanceId;
+
+    @JsonProperty("state")
+    private final String state;
+
+    @JsonProperty("description")
+    private final String description;
+
+}
@@ -0,0 +1,37 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
+
+import java.util.UUID;
+
+/**
+ * An instance to provision in bulk, with the fields of a provisioning request. The id is generated if absent.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ServiceInstanceSpec {
+
+    @JsonProperty("service_instance_id")
+    private String serviceInstanceId;
+
+    @JsonProperty("service_id")
+    private String serviceId;
+
+    @JsonProperty("plan_id")
+    private String planId;
+
+    @JsonProperty("organization_guid")
+    private String organizationGuid;
+
+    @JsonProperty("space_guid")
+    private String spaceGuid;
+
+    CreateServiceInstanceRequest toRequest() {
+        String id = serviceInstanceId == null ? UUID.randomUUID().toString() : UUID.fromString(serviceInstanceId).toString();
+        return new CreateServiceInstanceRequest(serviceId, planId, organizationGuid, spaceGuid).withServiceInstanceId(id);
+    }
+
+}
@@ -0,0 +1,40 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.repository.ServiceInstanceRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Fails operations that have been in progress for longer than database.operations.stale-after seconds, on startup
+ * and then periodically. Such operations were running or queued on a broker instance that crashed, or claimed by a
+ * bulk request that did not complete, and would otherwise be polled by the Cloud Controller, and block any later
+ * operation of their instance, for good. The age must exceed the longest operation, as another broker instance may
+ * still be running it.
+ */
+@Component
+@Slf4j
+public class StaleOperationSweeper {
+
+    private final ServiceInstanceRepository serviceInstanceRepository;
+    private final Duration staleAfter;
+
+    public StaleOperationSweeper(ServiceInstanceRepository serviceInstanceRepository,
+                                 @Value("${database.operations.stale-after:3600}") long staleAfterSeconds) {
+        this.serviceInstanceRepository = serviceInstanceRepository;
+        staleAfter = Duration.ofSeconds(staleAfterSeconds);
+    }
+
+    @Scheduled(fixedDelayString = "${database.operations.sweep-interval:600000}")
+    public void sweep() {
+        int failed = serviceInstanceRepository.failStaleOperations(Instant.now().minus(staleAfter));
+        if (failed > 0) {
+            log.warn("failed {} operations in progress for longer than {}", failed, staleAfter);
+        }
+    }
+
+}
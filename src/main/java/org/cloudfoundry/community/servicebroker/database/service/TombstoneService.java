@@ -0,0 +1,167 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.community.servicebroker.database.metrics.StatsProvider;
+import org.cloudfoundry.community.servicebroker.database.repository.DatabaseRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.ServiceInstanceRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.Tombstone;
+import org.cloudfoundry.community.servicebroker.database.repository.TombstoneRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.routing.RoutingDatabaseRepository;
+import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceExistsException;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
+import org.cloudfoundry.community.servicebroker.model.ServiceInstance;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deferred drops of deprovisioned databases, when database.tombstones.enabled is true. Deprovisioning then only
+ * renames the database to a tombstone, and the tombstones are dropped in the background, at most
+ * database.tombstones.drop-rate per database.tombstones.drop-interval, once older than database.tombstones.undo-window
+ * seconds. Until then, the instance can be restored. Each tombstone is claimed in the registry before it is dropped, so
+ * that broker instances sharing the registry do not drop it concurrently. Only supported on Postgres, which is checked
+ * on startup.
+ */
+@Component
+@Slf4j
+public class TombstoneService implements StatsProvider {
+
+    private static final Duration DROP_CLAIM_TIMEOUT = Duration.ofMinutes(10); //after which the claim of a broker instance that died while dropping is taken over
+
+    private final DatabaseRepository databaseRepository;
+    private final ServiceInstanceRepository serviceInstanceRepository;
+    private final TombstoneRepository tombstoneRepository;
+    private final boolean enabled;
+    private final Duration undoWindow;
+    private final int dropRate;
+    private final AtomicLong buried = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong restored = new AtomicLong();
+
+    public TombstoneService(DatabaseRepository databaseRepository,
+                            ServiceInstanceRepository serviceInstanceRepository,
+                            TombstoneRepository tombstoneRepository,
+                            @Value("${database.tombstones.enabled:false}") boolean enabled,
+                            @Value("${database.tombstones.undo-window:86400}") long undoWindowSeconds,
+                            @Value("${database.tombstones.drop-rate:2}") int dropRate) {
+        this.databaseRepository = databaseRepository;
+        this.serviceInstanceRepository = serviceInstanceRepository;
+        this.tombstoneRepository = tombstoneRepository;
+        this.enabled = enabled;
+        undoWindow = Duration.ofSeconds(undoWindowSeconds);
+        this.dropRate = dropRate;
+        if (enabled && !databaseRepository.supportsTombstones()) {
+            throw new IllegalStateException("database.tombstones.enabled is set, but tombstones are not supported by the database servers");
+        }
+        if (enabled) {
+            log.info("dropping tombstones older than {} at up to {} per run", undoWindow, dropRate);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Renames the database of an instance to a tombstone, recorded along with the instance, which the caller
+     * then removes from the registry.
+     */
+    public void bury(ServiceInstance serviceInstance) {
+        UUID instanceId = UUID.fromString(serviceInstance.getServiceInstanceId());
+        Instant now = Instant.now();
+        Tombstone tombstone = new Tombstone(
+                Tombstone.nameOf(instanceId, now),
+                instanceId,
+                serviceInstance.getServiceDefinitionId(),
+                serviceInstance.getPlanId(),
+                serviceInstance.getOrganizationGuid(),
+                serviceInstance.getSpaceGuid(),
+                serviceInstanceRepository.findServerId(instanceId).orElse(RoutingDatabaseRepository.DEFAULT_SERVER),
+                now);
+        tombstoneRepository.save(tombstone); //saved first, so that the tombstone is routed to the server of the database
+        try {
+            databaseRepository.buryDatabase(instanceId.toString(), tombstone.getName());
+        } catch (RuntimeException e) {
+            tombstoneRepository.delete(tombstone.getName());
+            throw e;
+        }
+        buried.incrementAndGet();
+    }
+
+    @Scheduled(fixedDelayString = "${database.tombstones.drop-interval:60000}")
+    public void dropExpired() {
+        if (!enabled) {
+            return;
+        }
+        Instant now = Instant.now();
+        Instant claimedBefore = now.minus(DROP_CLAIM_TIMEOUT);
+        for (Tombstone tombstone : tombstoneRepository.findBuriedBefore(now.minus(undoWindow), claimedBefore, dropRate)) {
+            if (!tombstoneRepository.claimDrop(tombstone.getName(), now, claimedBefore)) {
+                log.info("tombstone {} is being dropped by another broker instance", tombstone.getName());
+                continue;
+            }
+            log.info("dropping tombstone {} of instance {}", tombstone.getName(), tombstone.getInstanceId());
+            try {
+                databaseRepository.dropTombstone(tombstone.getName());
+                tombstoneRepository.delete(tombstone.getName());
+                dropped.incrementAndGet();
+            } catch (Exception e) {
+                log.error("failed to drop tombstone {}, will retry on next run", tombstone.getName(), e);
+                tombstoneRepository.releaseDrop(tombstone.getName());
+            }
+        }
+    }
+
+    /**
+     * Restores the most recently deprovisioned database of an instance, and the instance itself.
+     *
+     * @return the restored instance, or empty if the instance has no tombstone
+     */
+    public Optional<ServiceInstance> restore(UUID instanceId) throws ServiceInstanceExistsException {
+        Optional<Tombstone> found = tombstoneRepository.findLatest(instanceId);
+        if (!found.isPresent()) {
+            return Optional.empty();
+        }
+        Tombstone tombstone = found.get();
+        log.info("restoring instance {} from tombstone {}", instanceId, tombstone.getName());
+        if (!serviceInstanceRepository.claim(tombstone.toRequest(), OperationState.SUCCEEDED)) {
+            throw new ServiceInstanceExistsException(serviceInstanceRepository.findServiceInstance(instanceId)
+                    .orElseGet(() -> new ServiceInstance(tombstone.toRequest())));
+        }
+        try {
+            serviceInstanceRepository.assignServer(instanceId, tombstone.getServerId());
+            databaseRepository.restoreDatabase(tombstone.getName(), instanceId.toString());
+        } catch (RuntimeException e) {
+            serviceInstanceRepository.delete(instanceId);
+            throw e;
+        }
+        tombstoneRepository.delete(tombstone.getName());
+        restored.incrementAndGet();
+        log.info("restored instance {} from tombstone {}", instanceId, tombstone.getName());
+        return serviceInstanceRepository.findServiceInstance(instanceId);
+    }
+
+    @Override
+    public String getStatsName() {
+        return "tombstones";
+    }
+
+    @Override
+    public Map<String, Number> getStats() {
+        Map<String, Number> stats = new LinkedHashMap<>();
+        stats.put("pending", enabled ? tombstoneRepository.count() : 0);
+        stats.put("buried", buried.get());
+        stats.put("dropped", dropped.get());
+        stats.put("restored", restored.get());
+        return stats;
+    }
+
+}
@@ -0,0 +1,3 @@
+ALTER TABLE "brokerdb".serviceinstance ADD COLUMN last_operation varchar(16) DEFAULT 'provision' NOT NULL;
+ALTER TABLE "brokerdb".serviceinstance ADD COLUMN last_operation_state varchar(16) DEFAULT 'SUCCEEDED' NOT NULL;
+ALTER TABLE "brokerdb".serviceinstance ADD COLUMN last_operation_description varchar(1024);
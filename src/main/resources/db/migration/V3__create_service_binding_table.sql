@@ -0,0 +1,4 @@
+CREATE TABLE "brokerdb".servicebinding (
+    id varchar(36) primary key,
+    instance_id varchar(36) not null,
+    UNIQUE (instance_id, id));
@@ -0,0 +1 @@
+ALTER TABLE "brokerdb".serviceinstance ADD COLUMN server_id varchar(64) DEFAULT 'default' NOT NULL;
@@ -0,0 +1,9 @@
+CREATE TABLE "brokerdb".tombstone (
+    name varchar(63) primary key,
+    instance_id varchar(36) not null,
+    service_definition_id varchar(128) not null,
+    plan_id varchar(128) not null,
+    org_id varchar(36) not null,
+    space_id varchar(36) not null,
+    server_id varchar(64) not null,
+    buried_at timestamp not null);
@@ -0,0 +1 @@
+ALTER TABLE "brokerdb".tombstone ADD COLUMN drop_claimed_at timestamp;
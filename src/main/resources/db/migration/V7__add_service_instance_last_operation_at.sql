@@ -0,0 +1 @@
+ALTER TABLE "brokerdb".serviceinstance ADD COLUMN last_operation_at timestamp DEFAULT CURRENT_TIMESTAMP NOT NULL;
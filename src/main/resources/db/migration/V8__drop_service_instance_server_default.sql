@@ -0,0 +1,2 @@
+ALTER TABLE "brokerdb".serviceinstance ALTER COLUMN server_id DROP DEFAULT;
+ALTER TABLE "brokerdb".serviceinstance ALTER COLUMN server_id DROP NOT NULL;
@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.UUID;
 
 import static com.jayway.restassured.RestAssured.given;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -83,6 +84,21 @@ public class DatabaseBrokerControllerIT {
         assertFalse(serviceDefinition.getPlans().isEmpty());
     }
 
+    @Test
+    public void fetchCatalog_etagMatches_notModified() {
+        String etag = givenRequest()
+                .get(CatalogController.BASE_PATH)
+                .then()
+                .statusCode(HttpStatus.SC_OK)
+                .extract().header("ETag");
+
+        givenRequest()
+                .header("If-None-Match", etag)
+                .get(CatalogController.BASE_PATH)
+                .then()
+                .statusCode(HttpStatus.SC_NOT_MODIFIED);
+    }
+
     @Test
     public void provision() {
         CreateServiceInstanceRequest createRequest = new CreateServiceInstanceRequest(serviceId, "a", "b", "c")
@@ -97,6 +113,45 @@ public class DatabaseBrokerControllerIT {
         ;
     }
 
+    @Test
+    public void provisionAsync() throws InterruptedException {
+        CreateServiceInstanceRequest createRequest = new CreateServiceInstanceRequest(serviceId, "a", "b", "c")
+                .withServiceInstanceId(INSTANCE_ID.toString());
+
+        givenRequest()
+                .contentType(ContentType.JSON)
+                .body(createRequest)
+                .put(PROVISION_PATH + "?accepts_incomplete=true")
+                .then()
+                .statusCode(HttpStatus.SC_ACCEPTED)
+        ;
+
+        String state = "in progress";
+        for (int attempt = 0; attempt < 100 && state.equals("in progress"); attempt++) {
+            Thread.sleep(100);
+            state = givenRequest()
+                    .get(PROVISION_PATH + "/last_operation")
+                    .then()
+                    .statusCode(HttpStatus.SC_OK)
+                    .extract().path("state");
+        }
+        assertEquals("succeeded", state);
+    }
+
+    @Test
+    public void fetchMetrics() {
+        provision();
+
+        String metrics = givenRequest()
+                .get(MetricsController.BASE_PATH)
+                .then()
+                .statusCode(HttpStatus.SC_OK)
+                .extract().asString();
+
+        assertTrue(metrics.contains("broker_operation_seconds_count{operation=\"provision\",outcome=\"success\"}"));
+        assertTrue(metrics.contains("broker_sql_statement_seconds_count{kind=\"INSERT\"}"));
+    }
+
     @Test
     public void bind() {
         provision();
@@ -0,0 +1,145 @@
+package org.cloudfoundry.community.servicebroker.database.jdbc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class QuerySessionTest {
+
+    private static final String URL = "jdbc:h2:mem:query_session_test;DB_CLOSE_DELAY=-1";
+
+    private final QueryExecutor queryExecutor = new QueryExecutor(URL);
+
+    @Before
+    public void createTable() {
+        queryExecutor.update("CREATE TABLE fruit (name VARCHAR(20) PRIMARY KEY)");
+    }
+
+    @After
+    public void dropTable() {
+        queryExecutor.update("DROP TABLE fruit");
+    }
+
+    private int countFruit() {
+        return queryExecutor.select("SELECT * FROM fruit").size();
+    }
+
+    @Test
+    public void batch_transactional_allStatementsAreCommitted() {
+        queryExecutor.batch(Arrays.asList("INSERT INTO fruit VALUES ('apple')", "INSERT INTO fruit VALUES ('pear')"), true);
+
+        assertThat(countFruit(), is(2));
+    }
+
+    @Test
+    public void batch_transactionalStatementFails_nothingIsLeftBehind() {
+        assertThatThrownBy(() -> queryExecutor.batch(Arrays.asList(
+                "INSERT INTO fruit VALUES ('apple')",
+                "INSERT INTO fruit VALUES ('apple')"), true))
+                .isInstanceOf(Exception.class);
+
+        assertThat(countFruit(), is(0));
+    }
+
+    @Test
+    public void batch_transactionalParameterizedStatementFails_nothingIsLeftBehind() {
+        assertThatThrownBy(() -> queryExecutor.batch("INSERT INTO fruit VALUES (?)",
+                Arrays.asList(new Object[]{"apple"}, new Object[]{"pear"}, new Object[]{"apple"}), true))
+                .isInstanceOf(Exception.class);
+
+        assertThat(countFruit(), is(0));
+    }
+
+    @Test
+    public void batch_transactionalStatementFails_autoCommitIsRestored() throws Exception {
+        try (Connection connection = DriverManager.getConnection(URL)) {
+            QuerySession session = new QuerySession(connection, 10, null);
+
+            assertThatThrownBy(() -> session.batch(Arrays.asList("INSERT INTO fruit VALUES ('apple')", "INSERT INTO fruit VALUES ('apple')"), true))
+                    .isInstanceOf(Exception.class);
+
+            assertThat(connection.getAutoCommit(), is(true));
+        }
+    }
+
+    @Test
+    public void batch_withinCallersTransaction_joinsIt() throws Exception {
+        try (Connection connection = DriverManager.getConnection(URL)) {
+            QuerySession session = new QuerySession(connection, 10, null);
+            connection.setAutoCommit(false);
+
+            session.batch(Collections.singletonList("INSERT INTO fruit VALUES ('apple')"), true);
+            session.batch("INSERT INTO fruit VALUES (?)", Collections.singletonList(new Object[]{"pear"}), true);
+            connection.rollback();
+
+            assertThat(connection.getAutoCommit(), is(false));
+            assertThat(countFruit(), is(0));
+        }
+    }
+
+    @Test
+    public void forEachRow_resultIsStreamed_everyRowIsProcessed() {
+        queryExecutor.batch(Arrays.asList("INSERT INTO fruit VALUES ('apple')", "INSERT INTO fruit VALUES ('pear')"), true);
+        List<String> names = new ArrayList<>();
+
+        queryExecutor.forEachRow("SELECT name FROM fruit WHERE name <> ? ORDER BY name", row -> names.add(row.getString(1)), "banana");
+
+        assertThat(names, is(Arrays.asList("apple", "pear")));
+    }
+
+    @Test
+    public void forEachRow_resultIsStreamed_autoCommitIsRestored() throws Exception {
+        try (Connection connection = DriverManager.getConnection(URL)) {
+            QuerySession session = new QuerySession(connection, 10, null);
+
+            session.forEachRow("SELECT name FROM fruit", row -> {
+            });
+
+            assertThat(connection.getAutoCommit(), is(true));
+        }
+    }
+
+    @Test
+    public void forEachRow_withinCallersTransaction_leavesItOpen() throws Exception {
+        try (Connection connection = DriverManager.getConnection(URL)) {
+            QuerySession session = new QuerySession(connection, 10, null);
+            connection.setAutoCommit(false);
+            session.update("INSERT INTO fruit VALUES ('apple')");
+            List<String> names = new ArrayList<>();
+
+            session.forEachRow("SELECT name FROM fruit", row -> names.add(row.getString(1)));
+            connection.rollback();
+
+            assertThat(names, is(Collections.singletonList("apple")));
+            assertThat(connection.getAutoCommit(), is(false));
+            assertThat(countFruit(), is(0));
+        }
+    }
+
+    @Test
+    public void forEachRow_callbackFails_autoCommitIsRestored() throws Exception {
+        queryExecutor.update("INSERT INTO fruit VALUES ('apple')");
+        try (Connection connection = DriverManager.getConnection(URL)) {
+            QuerySession session = new QuerySession(connection, 10, null);
+
+            assertThatThrownBy(() -> session.forEachRow("SELECT name FROM fruit", row -> {
+                throw new SQLException("rotten");
+            })).hasMessage("rotten");
+
+            assertThat(connection.getAutoCommit(), is(true));
+        }
+    }
+
+}
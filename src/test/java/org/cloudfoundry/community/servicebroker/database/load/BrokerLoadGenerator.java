@@ -0,0 +1,296 @@
+package org.cloudfoundry.community.servicebroker.database.load;
+
+import org.cloudfoundry.community.servicebroker.database.Application;
+import org.cloudfoundry.community.servicebroker.database.repository.Consts;
+import org.cloudfoundry.community.servicebroker.model.Catalog;
+import org.cloudfoundry.community.servicebroker.model.ServiceDefinition;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.core.env.Environment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Boots the broker on a random port and drives it with concurrent provision, bind, unbind and deprovision cycles
+ * over HTTP, then reports the throughput and latency percentiles of each endpoint. Run it with:
+ * <pre>
+ * mvn -Pload test-compile exec:java
+ * </pre>
+ * It is configured by the system properties below, and runs against the H2 in-memory profile unless load.profile
+ * says otherwise, in which case the datasource of that profile must be reachable. With load.virtual-threads, the broker
+ * handles requests on virtual threads, and the peak of platform threads and of heap used is reported to compare
+ * both modes. The time from starting the broker to its first catalog response is reported as well, to compare
+ * profiles such as fast-start.
+ */
+public class BrokerLoadGenerator {
+
+    private static final String PROFILE = System.getProperty("load.profile", Consts.H2);
+    private static final int THREADS = Integer.getInteger("load.threads", 16);
+    private static final int WARMUP_SECONDS = Integer.getInteger("load.warmup", 10);
+    private static final int DURATION_SECONDS = Integer.getInteger("load.duration", 60);
+    private static final int BINDINGS_PER_INSTANCE = Integer.getInteger("load.bindings-per-instance", 2);
+    private static final int CATALOG_FETCHES_PER_INSTANCE = Integer.getInteger("load.catalog-fetches-per-instance", 1);
+    private static final boolean ASYNC = Boolean.getBoolean("load.async");
+    private static final boolean VIRTUAL_THREADS = Boolean.getBoolean("load.virtual-threads");
+    private static final String CLIENT_THREAD_PREFIX = "load-client-";
+    private static final String API_VERSION = "2.12";
+
+    private final String baseUrl;
+    private final String authorization;
+    private final String serviceId;
+    private final String planId;
+
+    private BrokerLoadGenerator(int port, String username, String password, Catalog catalog) {
+        baseUrl = "http://localhost:" + port;
+        authorization = "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+        ServiceDefinition serviceDefinition = catalog.getServiceDefinitions().iterator().next();
+        serviceId = serviceDefinition.getId();
+        planId = serviceDefinition.getPlans().iterator().next().getId();
+    }
+
+    public static void main(String[] args) throws Exception {
+        SpringApplication application = new SpringApplication(Application.class);
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("server.port", 0);
+        properties.put("database.virtual-threads", VIRTUAL_THREADS);
+        application.setDefaultProperties(properties);
+        String[] arguments = Arrays.copyOf(args, args.length + 1);
+        arguments[args.length] = "--spring.profiles.active=" + PROFILE; //replaces the profile of application.yml, which an additional profile would not
+        long start = System.nanoTime();
+        EmbeddedWebApplicationContext context = (EmbeddedWebApplicationContext) application.run(arguments);
+        try {
+            Environment environment = context.getEnvironment();
+            BrokerLoadGenerator generator = new BrokerLoadGenerator(
+                    context.getEmbeddedServletContainer().getPort(),
+                    environment.getProperty("security.user.name"),
+                    environment.getProperty("security.user.password"),
+                    context.getBean(Catalog.class));
+            generator.request(new Latencies(), "catalog", "GET", "/v2/catalog", null);
+            System.out.printf("first catalog response %d ms after starting the broker%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            System.out.printf("profile=%s threads=%d bindings-per-instance=%d catalog-fetches-per-instance=%d async=%b virtual-threads=%b%n",
+                    PROFILE, THREADS, BINDINGS_PER_INSTANCE, CATALOG_FETCHES_PER_INSTANCE, ASYNC, VIRTUAL_THREADS);
+            generator.run(WARMUP_SECONDS);
+            ResourceSampler sampler = new ResourceSampler();
+            Latencies latencies = generator.run(DURATION_SECONDS);
+            sampler.stop();
+            latencies.report(DURATION_SECONDS);
+            sampler.report();
+        } finally {
+            context.close();
+        }
+    }
+
+    private Latencies run(int seconds) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS,
+                runnable -> new Thread(runnable, CLIENT_THREAD_PREFIX + threadCount.incrementAndGet()));
+        List<Future<Latencies>> futures = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            futures.add(executor.submit(() -> {
+                Latencies latencies = new Latencies();
+                while (System.nanoTime() < deadline) {
+                    cycle(latencies);
+                }
+                return latencies;
+            }));
+        }
+        Latencies latencies = new Latencies();
+        for (Future<Latencies> future : futures) {
+            latencies.addAll(future.get());
+        }
+        executor.shutdown();
+        return latencies;
+    }
+
+    private void cycle(Latencies latencies) throws IOException, InterruptedException {
+        String instancePath = "/v2/service_instances/" + UUID.randomUUID();
+        String query = "?service_id=" + serviceId + "&plan_id=" + planId;
+        for (int i = 0; i < CATALOG_FETCHES_PER_INSTANCE; i++) {
+            request(latencies, "catalog", "GET", "/v2/catalog", null);
+        }
+        String provision = "{\"service_id\":\"" + serviceId + "\",\"plan_id\":\"" + planId
+                + "\",\"organization_guid\":\"" + UUID.randomUUID() + "\",\"space_guid\":\"" + UUID.randomUUID() + "\"}";
+        if (!request(latencies, "provision", "PUT", instancePath + (ASYNC ? "?accepts_incomplete=true" : ""), provision)) {
+            return;
+        }
+        if (ASYNC && !awaitLastOperation(latencies, instancePath)) {
+            return;
+        }
+        List<String> bindingPaths = new ArrayList<>();
+        for (int i = 0; i < BINDINGS_PER_INSTANCE; i++) {
+            String bindingPath = instancePath + "/service_bindings/" + UUID.randomUUID();
+            String bind = "{\"service_id\":\"" + serviceId + "\",\"plan_id\":\"" + planId + "\",\"app_guid\":\"" + UUID.randomUUID() + "\"}";
+            if (request(latencies, "bind", "PUT", bindingPath, bind)) {
+                bindingPaths.add(bindingPath);
+            }
+        }
+        for (String bindingPath : bindingPaths) {
+            request(latencies, "unbind", "DELETE", bindingPath + query, null);
+        }
+        request(latencies, "deprovision", "DELETE", instancePath + query + (ASYNC ? "&accepts_incomplete=true" : ""), null);
+    }
+
+    private boolean awaitLastOperation(Latencies latencies, String instancePath) throws IOException, InterruptedException {
+        for (int attempt = 0; attempt < 600; attempt++) {
+            String body = requestBody(latencies, "last_operation", "GET", instancePath + "/last_operation", null);
+            if (body == null || body.contains("failed")) {
+                return false;
+            }
+            if (body.contains("succeeded")) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    private boolean request(Latencies latencies, String endpoint, String method, String path, String body) throws IOException {
+        return requestBody(latencies, endpoint, method, path, body) != null;
+    }
+
+    /**
+     * @return the response body, or null if the response status is not successful
+     */
+    private String requestBody(Latencies latencies, String endpoint, String method, String path, String body) throws IOException {
+        long start = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Authorization", authorization);
+        connection.setRequestProperty("X-Broker-Api-Version", API_VERSION);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        boolean succeeded = status >= 200 && status < 300;
+        String response;
+        try (InputStream input = succeeded ? connection.getInputStream() : connection.getErrorStream()) {
+            response = input == null ? "" : readFully(input);
+        }
+        latencies.record(endpoint, System.nanoTime() - start, succeeded);
+        return succeeded ? response : null;
+    }
+
+    private static String readFully(InputStream input) throws IOException {
+        StringBuilder response = new StringBuilder();
+        byte[] buffer = new byte[4096];
+        for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+            response.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+        }
+        return response.toString();
+    }
+
+    /**
+     * Samples the heap used by the JVM, which runs both the broker and the load generator, and tracks the peak
+     * of live platform threads other than the client threads of the load generator. Virtual threads are not
+     * counted by the thread MXBean.
+     */
+    private static class ResourceSampler {
+
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final AtomicLong peakThreads = new AtomicLong();
+        private final AtomicLong peakHeapUsed = new AtomicLong();
+        private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+
+        ResourceSampler() {
+            sampler.scheduleAtFixedRate(() -> {
+                peakThreads.accumulateAndGet(countBrokerThreads(), Math::max);
+                peakHeapUsed.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+            }, 0, 100, TimeUnit.MILLISECONDS);
+        }
+
+        private long countBrokerThreads() {
+            return Arrays.stream(threads.getThreadInfo(threads.getAllThreadIds(), 0))
+                    .filter(thread -> thread != null && !thread.getThreadName().startsWith(CLIENT_THREAD_PREFIX))
+                    .count();
+        }
+
+        void stop() {
+            sampler.shutdownNow();
+        }
+
+        void report() {
+            System.out.printf("peak platform threads %d, peak heap used %.1f MB%n",
+                    peakThreads.get(), peakHeapUsed.get() / (1024.0 * 1024.0));
+        }
+
+    }
+
+    /**
+     * Latencies of the requests of a single thread, merged once the threads are done.
+     */
+    private static class Latencies {
+
+        private final Map<String, long[]> latencies = new LinkedHashMap<>();
+        private final Map<String, Integer> counts = new LinkedHashMap<>();
+        private final Map<String, Integer> errors = new LinkedHashMap<>();
+
+        void record(String endpoint, long nanos, boolean succeeded) {
+            int count = counts.getOrDefault(endpoint, 0);
+            long[] endpointLatencies = latencies.computeIfAbsent(endpoint, key -> new long[1024]);
+            if (count == endpointLatencies.length) {
+                endpointLatencies = Arrays.copyOf(endpointLatencies, count * 2);
+                latencies.put(endpoint, endpointLatencies);
+            }
+            endpointLatencies[count] = nanos;
+            counts.put(endpoint, count + 1);
+            if (!succeeded) {
+                errors.merge(endpoint, 1, Integer::sum);
+            }
+        }
+
+        void addAll(Latencies other) {
+            other.counts.forEach((endpoint, count) -> {
+                long[] otherLatencies = other.latencies.get(endpoint);
+                for (int i = 0; i < count; i++) {
+                    record(endpoint, otherLatencies[i], true);
+                }
+            });
+            other.errors.forEach((endpoint, count) -> errors.merge(endpoint, count, Integer::sum));
+        }
+
+        void report(int seconds) {
+            System.out.printf("%-15s %9s %7s %9s %9s %9s %9s %9s%n", "endpoint", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms");
+            counts.forEach((endpoint, count) -> {
+                long[] sorted = Arrays.copyOf(latencies.get(endpoint), count);
+                Arrays.sort(sorted);
+                System.out.printf("%-15s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n", endpoint, count, errors.getOrDefault(endpoint, 0),
+                        count / (double) seconds,
+                        percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), sorted[count - 1] / 1e6);
+            });
+        }
+
+        private static double percentile(long[] sorted, int percentile) {
+            return sorted[(int) Math.min(sorted.length - 1, (long) sorted.length * percentile / 100)] / 1e6;
+        }
+
+    }
+
+}
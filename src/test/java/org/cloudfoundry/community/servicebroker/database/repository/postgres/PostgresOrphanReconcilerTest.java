@@ -0,0 +1,68 @@
+package org.cloudfoundry.community.servicebroker.database.repository.postgres;
+
+import org.junit.Test;
+
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.cloudfoundry.community.servicebroker.database.repository.postgres.PostgresOrphanReconciler.confirmed;
+import static org.cloudfoundry.community.servicebroker.database.repository.postgres.PostgresOrphanReconciler.inWindow;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PostgresOrphanReconcilerTest {
+
+    private static final LocalTime ONE = LocalTime.of(1, 0);
+    private static final LocalTime FOUR = LocalTime.of(4, 0);
+    private static final LocalTime TWENTY_THREE = LocalTime.of(23, 0);
+
+    @Test
+    public void inWindow_withinWindow_isTrue() {
+        assertThat(inWindow(LocalTime.of(2, 30), ONE, FOUR), is(true));
+        assertThat(inWindow(ONE, ONE, FOUR), is(true));
+    }
+
+    @Test
+    public void inWindow_outsideWindow_isFalse() {
+        assertThat(inWindow(LocalTime.of(0, 30), ONE, FOUR), is(false));
+        assertThat(inWindow(FOUR, ONE, FOUR), is(false));
+    }
+
+    @Test
+    public void inWindow_windowSpansMidnightAndTimeIsOnEitherSide_isTrue() {
+        assertThat(inWindow(LocalTime.of(23, 30), TWENTY_THREE, ONE), is(true));
+        assertThat(inWindow(LocalTime.MIDNIGHT, TWENTY_THREE, ONE), is(true));
+        assertThat(inWindow(LocalTime.of(0, 30), TWENTY_THREE, ONE), is(true));
+    }
+
+    @Test
+    public void inWindow_windowSpansMidnightAndTimeIsOutside_isFalse() {
+        assertThat(inWindow(ONE, TWENTY_THREE, ONE), is(false));
+        assertThat(inWindow(LocalTime.NOON, TWENTY_THREE, ONE), is(false));
+    }
+
+    @Test
+    public void confirmed_orphanSeenOnce_isNotConfirmed() {
+        assertThat(confirmed(names("a", "b"), names("b"), Collections.emptySet(), 10), is(Arrays.asList("b")));
+        assertThat(confirmed(names("a"), Collections.emptySet(), Collections.emptySet(), 10), is(Collections.emptyList()));
+    }
+
+    @Test
+    public void confirmed_moreConfirmedOrphansThanTheLimit_returnsTheLimit() {
+        assertThat(confirmed(names("a", "b", "c"), names("a", "b", "c"), Collections.emptySet(), 2), is(Arrays.asList("a", "b")));
+        assertThat(confirmed(names("a"), names("a"), Collections.emptySet(), 0), is(Collections.emptyList()));
+    }
+
+    @Test
+    public void confirmed_excludedOrphan_isNotConfirmedAndTakesNoBudget() {
+        assertThat(confirmed(names("a", "b"), names("a", "b"), names("a"), 1), is(Arrays.asList("b")));
+    }
+
+    private static Set<String> names(String... names) {
+        return new LinkedHashSet<>(Arrays.asList(names));
+    }
+
+}
@@ -0,0 +1,139 @@
+package org.cloudfoundry.community.servicebroker.database.repository.routing;
+
+import org.cloudfoundry.community.servicebroker.database.metrics.MetricsRegistry;
+import org.cloudfoundry.community.servicebroker.database.repository.DatabaseRepository;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DdlAdmissionTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final DatabaseRepository blockingRepository = new DatabaseRepository() {
+
+        @Override
+        public void createDatabase(String databaseName, String planId, int databaseConnectionsMax) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void updateDatabase(String databaseName, String planId, int databaseConnectionsMax) {
+        }
+
+        @Override
+        public void deleteDatabase(String databaseName) {
+        }
+
+        @Override
+        public Map<String, Object> createUser(String databaseName, String username, String password) {
+            return Collections.singletonMap("username", username);
+        }
+
+        @Override
+        public void deleteUser(String databaseName, String username) {
+        }
+
+        @Override
+        public boolean userExists(String databaseName, String username) {
+            return false;
+        }
+
+        @Override
+        public List<String> findUsers(String databaseName) {
+            return Collections.emptyList();
+        }
+
+    };
+
+    @After
+    public void shutdown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    private DdlAdmission ddlAdmission;
+
+    private DatabaseRepository admit(int maxQueue) throws InterruptedException {
+        ddlAdmission = new DdlAdmission(new MetricsRegistry(), 1, 0, 1, 0, 50, maxQueue);
+        DatabaseRepository repository = ddlAdmission.admit("default", blockingRepository);
+        executor.submit(() -> repository.createDatabase("first", null, 10));
+        started.await();
+        return repository;
+    }
+
+    @Test
+    public void createDatabase_heavyLaneBusy_isRejectedAfterMaxWait() throws Exception {
+        DatabaseRepository repository = admit(10);
+
+        assertThatThrownBy(() -> repository.createDatabase("second", null, 10))
+                .isInstanceOf(AdmissionRejectedException.class);
+    }
+
+    @Test
+    public void createUser_heavyLaneBusy_isAdmittedByLightLane() throws Exception {
+        DatabaseRepository repository = admit(10);
+
+        assertThat(repository.createUser("first", "user", "password").get("username"), is("user"));
+    }
+
+    @Test
+    public void deleteDatabase_queueFull_isRejectedAtOnce() throws Exception {
+        DatabaseRepository repository = admit(0);
+
+        assertThatThrownBy(() -> repository.deleteDatabase("first"))
+                .isInstanceOf(AdmissionRejectedException.class);
+    }
+
+    @Test
+    public void createDatabase_rejectedWhileHeavyLaneBusy_leavesTheRateTokenToTheNext() throws Exception {
+        ddlAdmission = new DdlAdmission(new MetricsRegistry(), 1, 1, 1, 0, 50, 10);
+        DatabaseRepository repository = ddlAdmission.admit("default", blockingRepository);
+        executor.submit(() -> repository.createDatabase("first", null, 10));
+        started.await();
+        Thread.sleep(1100); //the token of the next second is available
+
+        assertThatThrownBy(() -> repository.createDatabase("second", null, 10))
+                .isInstanceOf(AdmissionRejectedException.class);
+        release.countDown();
+        boolean[] ran = {false};
+        ddlAdmission.admitHeavy("default", () -> ran[0] = true);
+
+        assertThat(ran[0], is(true));
+    }
+
+    @Test
+    public void admitHeavy_heavyLaneOfServerBusy_isRejected() throws Exception {
+        admit(10);
+
+        assertThatThrownBy(() -> ddlAdmission.admitHeavy("default", () -> {
+        })).isInstanceOf(AdmissionRejectedException.class);
+    }
+
+    @Test
+    public void admitHeavy_heavyLaneOfOtherServerBusy_isAdmitted() throws Exception {
+        admit(10);
+        boolean[] ran = {false};
+
+        ddlAdmission.admitHeavy("pg2", () -> ran[0] = true);
+
+        assertThat(ran[0], is(true));
+    }
+
+}
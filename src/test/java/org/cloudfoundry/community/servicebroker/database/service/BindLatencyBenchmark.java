@@ -0,0 +1,78 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import org.cloudfoundry.community.servicebroker.database.repository.Consts;
+import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
+import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceExistsException;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceBindingRequest;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.DeleteServiceInstanceBindingRequest;
+import org.cloudfoundry.community.servicebroker.model.DeleteServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.ServiceInstance;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.cloudfoundry.community.servicebroker.database.service.Exceptions.swallowException;
+
+/**
+ * Measures the latency of bind calls, each of which creates a user. It is not run as part of the build, run it with:
+ * <pre>
+ * mvn test -Dtest=BindLatencyBenchmark
+ * </pre>
+ * Binding is only costly on Postgres, so measure it with the {@link Consts#POSTGRES} profile active:
+ * <pre>
+ * mvn -Ppostgres-tests test -Dtest=BindLatencyBenchmark [-Dtest.postgres.url=&lt;jdbc-url&gt;]
+ * </pre>
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, classes = BrokerTestConfig.class)
+@ActiveProfiles(resolver = BrokerTestConfig.TestProfiles.class)
+public class BindLatencyBenchmark {
+
+    private static final String INSTANCE_ID = new UUID(3, 1).toString();
+    private static final int BINDINGS = Integer.getInteger("benchmark.bindings", 200);
+
+    @Autowired
+    private DatabaseCreationService databaseCreationService;
+
+    @Autowired
+    private DatabaseBindingService databaseBindingService;
+
+    @Before
+    public void createInstance() throws ServiceBrokerException, ServiceInstanceExistsException {
+        databaseCreationService.createServiceInstance(new CreateServiceInstanceRequest().withServiceInstanceId(INSTANCE_ID));
+    }
+
+    @After
+    public void deleteInstance() {
+        swallowException(() -> databaseCreationService.deleteServiceInstance(new DeleteServiceInstanceRequest(INSTANCE_ID, "", "")));
+    }
+
+    @Test
+    public void bindLatency() throws Exception {
+        long[] latencies = new long[BINDINGS];
+        for (int i = 0; i < BINDINGS; i++) {
+            String bindingId = new UUID(3, i + 2).toString();
+            long start = System.nanoTime();
+            databaseBindingService.createServiceInstanceBinding(
+                    new CreateServiceInstanceBindingRequest().withServiceInstanceId(INSTANCE_ID).withBindingId(bindingId));
+            latencies[i] = System.nanoTime() - start;
+            databaseBindingService.deleteServiceInstanceBinding(new DeleteServiceInstanceBindingRequest(
+                    bindingId, new ServiceInstance(new DeleteServiceInstanceRequest(INSTANCE_ID, "", "")), "", ""));
+        }
+        Arrays.sort(latencies);
+        System.out.printf("bind bindings=%d p50=%dus p99=%dus max=%dus%n", BINDINGS,
+                latencies[BINDINGS / 2] / 1000,
+                latencies[BINDINGS * 99 / 100] / 1000,
+                latencies[BINDINGS - 1] / 1000);
+    }
+
+}
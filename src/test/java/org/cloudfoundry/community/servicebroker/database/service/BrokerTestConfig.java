@@ -1,18 +1,18 @@
 package org.cloudfoundry.community.servicebroker.database.service;
 
+import org.cloudfoundry.community.servicebroker.database.config.CatalogConfig;
 import org.cloudfoundry.community.servicebroker.database.jdbc.QueryExecutor;
+import org.cloudfoundry.community.servicebroker.database.metrics.MetricsRegistry;
 import org.cloudfoundry.community.servicebroker.database.repository.Consts;
 import org.springframework.boot.autoconfigure.flyway.FlywayAutoConfiguration;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
-import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.core.env.Environment;
+import org.springframework.test.context.ActiveProfilesResolver;
 
-import java.security.SecureRandom;
 import java.util.Arrays;
-import java.util.Random;
 
 import static org.hamcrest.core.IsCollectionContaining.hasItem;
 import static org.junit.Assume.assumeThat;
@@ -24,23 +24,33 @@ import static org.junit.Assume.assumeThat;
 @Import({
         DataSourceAutoConfiguration.class,
         FlywayAutoConfiguration.class,
+        CatalogConfig.class,
 })
 @ComponentScan(
         basePackageClasses = {
                 QueryExecutor.class,
+                MetricsRegistry.class,
                 Consts.class,
                 DatabaseBindingService.class,
         }
 )
 class BrokerTestConfig {
 
-    @Bean
-    Random random() {
-        return new SecureRandom();
-    }
-
     static void assumePostgresProfile(Environment environment) {
         assumeThat(Arrays.asList(environment.getActiveProfiles()), hasItem(Consts.POSTGRES));
     }
 
+    /**
+     * Activates the profiles given by the test.profile system property, {@link Consts#H2} by default. The postgres-tests
+     * maven profile sets it to {@link Consts#POSTGRES}, so that the tests which need a Postgres server run as well.
+     */
+    static class TestProfiles implements ActiveProfilesResolver {
+
+        @Override
+        public String[] resolve(Class<?> testClass) {
+            return System.getProperty("test.profile", Consts.H2).split(",");
+        }
+
+    }
+
 }
@@ -0,0 +1,107 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import org.cloudfoundry.community.servicebroker.database.repository.Consts;
+import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
+import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceExistsException;
+import org.cloudfoundry.community.servicebroker.model.Catalog;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.DeleteServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.ServiceDefinition;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.cloudfoundry.community.servicebroker.database.service.Exceptions.swallowException;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, classes = BrokerTestConfig.class)
+@ActiveProfiles(Consts.H2)
+public class BulkProvisioningServiceTest {
+
+    private static final List<String> INSTANCE_IDS = Arrays.asList(
+            new UUID(4, 1).toString(), new UUID(4, 2).toString(), new UUID(4, 3).toString());
+
+    @Autowired
+    private BulkProvisioningService bulkProvisioningService;
+
+    @Autowired
+    private DatabaseCreationService databaseCreationService;
+
+    @Autowired
+    private Catalog catalog;
+
+    @After
+    public void clean() {
+        INSTANCE_IDS.forEach(id -> swallowException(() -> databaseCreationService.deleteServiceInstance(new DeleteServiceInstanceRequest(id, "", ""))));
+    }
+
+    @Test
+    public void provision_oneInstanceExists_othersProvisioned() throws ServiceBrokerException, ServiceInstanceExistsException, InterruptedException {
+        databaseCreationService.createServiceInstance(new CreateServiceInstanceRequest().withServiceInstanceId(INSTANCE_IDS.get(0)));
+        List<CreateServiceInstanceRequest> requests = new ArrayList<>();
+        INSTANCE_IDS.forEach(id -> requests.add(request(id)));
+        Map<String, String> states = new HashMap<>();
+
+        bulkProvisioningService.provision(requests, result -> states.put(result.getServiceInstanceId(), result.getState()));
+
+        assertThat(states.get(INSTANCE_IDS.get(0)), is(ProvisioningResult.EXISTS));
+        assertThat(states.get(INSTANCE_IDS.get(1)), is(ProvisioningResult.SUCCEEDED));
+        assertThat(states.get(INSTANCE_IDS.get(2)), is(ProvisioningResult.SUCCEEDED));
+        assertNotNull(databaseCreationService.getServiceInstance(INSTANCE_IDS.get(2)));
+    }
+
+    @Test
+    public void provision_instanceListedTwice_oneResultPerListing() throws InterruptedException {
+        List<CreateServiceInstanceRequest> requests = new ArrayList<>();
+        requests.add(request(INSTANCE_IDS.get(0)));
+        requests.add(request(INSTANCE_IDS.get(0)));
+        List<String> states = new ArrayList<>();
+
+        bulkProvisioningService.provision(requests, result -> states.add(result.getState()));
+
+        assertThat(states.size(), is(2));
+        assertThat(states.contains(ProvisioningResult.SUCCEEDED), is(true));
+        assertThat(states.contains(ProvisioningResult.EXISTS), is(true));
+    }
+
+    @Test
+    public void provision_planNotInCatalog_rejectedAndOthersProvisioned() throws InterruptedException {
+        ServiceDefinition serviceDefinition = catalog.getServiceDefinitions().get(0);
+        List<CreateServiceInstanceRequest> requests = new ArrayList<>();
+        requests.add(new CreateServiceInstanceRequest(serviceDefinition.getId(), "no-such-plan", null, null)
+                .withServiceInstanceId(INSTANCE_IDS.get(0)));
+        requests.add(new CreateServiceInstanceRequest().withServiceInstanceId(INSTANCE_IDS.get(1)));
+        requests.add(request(INSTANCE_IDS.get(2)));
+        Map<String, String> states = new HashMap<>();
+
+        bulkProvisioningService.provision(requests, result -> states.put(result.getServiceInstanceId(), result.getState()));
+
+        assertThat(states.get(INSTANCE_IDS.get(0)), is(ProvisioningResult.REJECTED));
+        assertThat(states.get(INSTANCE_IDS.get(1)), is(ProvisioningResult.REJECTED));
+        assertThat(states.get(INSTANCE_IDS.get(2)), is(ProvisioningResult.SUCCEEDED));
+        assertNull(databaseCreationService.getServiceInstance(INSTANCE_IDS.get(0)));
+        assertNull(databaseCreationService.getServiceInstance(INSTANCE_IDS.get(1)));
+    }
+
+    private CreateServiceInstanceRequest request(String id) {
+        ServiceDefinition serviceDefinition = catalog.getServiceDefinitions().get(0);
+        return new CreateServiceInstanceRequest(serviceDefinition.getId(), serviceDefinition.getPlans().get(0).getId(), null, null)
+                .withServiceInstanceId(id);
+    }
+
+}
@@ -3,7 +3,7 @@ package org.cloudfoundry.community.servicebroker.database.service;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import org.cloudfoundry.community.servicebroker.database.jdbc.QueryExecutor;
-import org.cloudfoundry.community.servicebroker.database.repository.Consts;
+import org.cloudfoundry.community.servicebroker.database.repository.ServiceBindingRepository;
 import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
 import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceBindingExistsException;
 import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceExistsException;
@@ -36,7 +36,7 @@ import static org.junit.Assert.*;
 @RunWith(Parameterized.class)
 @RequiredArgsConstructor
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, classes = BrokerTestConfig.class)
-@ActiveProfiles(Consts.H2)
+@ActiveProfiles(resolver = BrokerTestConfig.TestProfiles.class)
 public class DatabaseBindingServiceTest {
 
 
@@ -65,6 +65,12 @@ public class DatabaseBindingServiceTest {
     @Autowired
     private DatabaseBindingService databaseBindingService;
 
+    @Autowired
+    private BindingReconciler bindingReconciler;
+
+    @Autowired
+    private ServiceBindingRepository serviceBindingRepository;
+
     @Autowired
     private Environment environment;
 
@@ -149,6 +155,33 @@ public class DatabaseBindingServiceTest {
         ).isInstanceOf(ServiceInstanceBindingExistsException.class);
     }
 
+    @Test
+    public void reconcile_bindingMissingFromRegistry_bindingRegistered() throws ServiceBrokerException, ServiceInstanceExistsException, ServiceInstanceBindingExistsException {
+        databaseCreationService.createServiceInstance(CREATE_REQUEST);
+        databaseBindingService.createServiceInstanceBinding(BIND_REQUEST1);
+        serviceBindingRepository.delete(UUID.fromString(INSTANCE_ID), BINDING_ID1);
+
+        bindingReconciler.reconcile();
+        bindingReconciler.reconcile();
+
+        assertThatThrownBy(
+                () -> databaseBindingService.createServiceInstanceBinding(BIND_REQUEST1)
+        ).isInstanceOf(ServiceInstanceBindingExistsException.class);
+    }
+
+    @Test
+    public void reconcile_bindingWithoutUserSeenOnce_bindingIsKept() throws ServiceBrokerException, ServiceInstanceExistsException {
+        databaseCreationService.createServiceInstance(CREATE_REQUEST);
+        bindingReconciler.reconcile();
+        serviceBindingRepository.save(UUID.fromString(INSTANCE_ID), BINDING_ID1); //as by a bind that has yet to create its user
+
+        bindingReconciler.reconcile();
+
+        assertTrue(serviceBindingRepository.exists(UUID.fromString(INSTANCE_ID), BINDING_ID1));
+        bindingReconciler.reconcile();
+        assertFalse(serviceBindingRepository.exists(UUID.fromString(INSTANCE_ID), BINDING_ID1));
+    }
+
     @Test
     public void deleteServiceInstanceBinding_instanceDoesNotExists_fails() {
         assertThatThrownBy(
@@ -235,6 +268,23 @@ public class DatabaseBindingServiceTest {
         }
     }
 
+    @Test
+    public void createServiceInstanceBinding_createTable_tableOwnedByInstanceRole() throws ServiceBrokerException, ServiceInstanceExistsException, ServiceInstanceBindingExistsException, SQLException {
+        assumePostgresProfile(environment);
+        databaseCreationService.createServiceInstance(CREATE_REQUEST);
+        ServiceInstanceBinding binding = databaseBindingService.createServiceInstanceBinding(BIND_REQUEST1);
+        String url = (String) binding.getCredentials().get("jdbcurl");
+
+        try (Connection connection = getConnection(url)) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("create table tree (name varchar(36) not null)");
+                ResultSet result = statement.executeQuery("select tableowner from pg_tables where tablename = 'tree'");
+                assertTrue(result.next());
+                assertThat(result.getString(1), is(INSTANCE_ID));
+            }
+        }
+    }
+
     @Test
     public void createServiceInstanceBinding_setPrivilegedRole_succeedsOnlyIfElevatedPrivilegesSet() throws SQLException, ServiceBrokerException, ServiceInstanceExistsException, ServiceInstanceBindingExistsException {
         assumePostgresProfile(environment);
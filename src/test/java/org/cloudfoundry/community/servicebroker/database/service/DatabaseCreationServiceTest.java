@@ -1,11 +1,10 @@
 package org.cloudfoundry.community.servicebroker.database.service;
 
 import lombok.SneakyThrows;
-import org.cloudfoundry.community.servicebroker.database.repository.Consts;
 import org.cloudfoundry.community.servicebroker.exception.ServiceBrokerException;
 import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceBindingExistsException;
 import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceExistsException;
-import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceUpdateNotSupportedException;
+import org.cloudfoundry.community.servicebroker.exception.ServiceInstanceDoesNotExistException;
 import org.cloudfoundry.community.servicebroker.model.*;
 import org.junit.Before;
 import org.junit.Test;
@@ -18,7 +17,13 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.IntStream;
 
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -34,8 +39,12 @@ import static org.junit.Assert.*;
 @SpringBootTest(
         webEnvironment = SpringBootTest.WebEnvironment.NONE,
         classes = BrokerTestConfig.class,
-        properties = "database.connections.max=3")
-@ActiveProfiles(Consts.H2)
+        properties = {
+                "database.connections.max=3",
+                "database.plans={\"template-plan\": {\"template\": \"classpath:db/template/fruit.sql\"}," +
+                        " \"limited-plan\": {\"connection_limit\": 2, \"statement_timeout\": \"1s\", \"work_mem\": \"8MB\"}}",
+        })
+@ActiveProfiles(resolver = BrokerTestConfig.TestProfiles.class)
 public class DatabaseCreationServiceTest {
 
     private static final String INSTANCE_ID = new UUID(1, 1).toString();
@@ -44,8 +53,16 @@ public class DatabaseCreationServiceTest {
             = new CreateServiceInstanceRequest().withServiceInstanceId(INSTANCE_ID);
     private static final DeleteServiceInstanceRequest DELETE_REQUEST
             = new DeleteServiceInstanceRequest(INSTANCE_ID, "", "");
+    private static final CreateServiceInstanceRequest TEMPLATE_CREATE_REQUEST
+            = new CreateServiceInstanceRequest("", "template-plan", "", "").withServiceInstanceId(INSTANCE_ID);
+    private static final CreateServiceInstanceRequest LIMITED_CREATE_REQUEST
+            = new CreateServiceInstanceRequest("", "limited-plan", "", "").withServiceInstanceId(INSTANCE_ID);
+    private static final CreateServiceInstanceRequest ASYNC_CREATE_REQUEST
+            = new CreateServiceInstanceRequest().withServiceInstanceId(INSTANCE_ID).withAsyncClient(true);
+    private static final DeleteServiceInstanceRequest ASYNC_DELETE_REQUEST
+            = new DeleteServiceInstanceRequest(INSTANCE_ID, "", "", true);
     private static final UpdateServiceInstanceRequest UPDATE_REQUEST
-            = new UpdateServiceInstanceRequest().withInstanceId(INSTANCE_ID);
+            = new UpdateServiceInstanceRequest("limited-plan").withInstanceId(INSTANCE_ID);
     private static final CreateServiceInstanceBindingRequest BIND_REQUEST
             = new CreateServiceInstanceBindingRequest().withServiceInstanceId(INSTANCE_ID).withBindingId(BINDING_ID);
     private static final DeleteServiceInstanceBindingRequest UNBIND_REQUEST
@@ -85,6 +102,35 @@ public class DatabaseCreationServiceTest {
         ).isInstanceOf(ServiceInstanceExistsException.class);
     }
 
+    @Test
+    public void createServiceInstance_concurrentConflictingRequests_exactlyOneSucceeds() throws Exception {
+        int requests = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            CreateServiceInstanceRequest request = new CreateServiceInstanceRequest("", "", "org-" + i, "")
+                    .withServiceInstanceId(INSTANCE_ID);
+            results.add(executor.submit(() -> {
+                start.await();
+                try {
+                    databaseCreationService.createServiceInstance(request);
+                    return true;
+                } catch (ServiceInstanceExistsException e) {
+                    return false;
+                }
+            }));
+        }
+        start.countDown();
+        int succeeded = 0;
+        for (Future<Boolean> result : results) {
+            succeeded += result.get() ? 1 : 0;
+        }
+        executor.shutdown();
+
+        assertThat(succeeded, is(1));
+    }
+
     @Test
     public void deleteServiceInstance_instanceDoesNotExist_returnsNull() throws ServiceBrokerException, ServiceInstanceExistsException {
         ServiceInstance serviceInstance = databaseCreationService.deleteServiceInstance(DELETE_REQUEST);
@@ -101,6 +147,63 @@ public class DatabaseCreationServiceTest {
         assertThat(serviceInstance.getServiceInstanceId(), is(INSTANCE_ID));
     }
 
+    @Test
+    public void createServiceInstance_planHasTemplate_databaseIsInitializedFromTemplate() throws ServiceBrokerException, ServiceInstanceExistsException, ServiceInstanceBindingExistsException, SQLException {
+        databaseCreationService.createServiceInstance(TEMPLATE_CREATE_REQUEST);
+        ServiceInstanceBinding binding = databaseBindingService.createServiceInstanceBinding(BIND_REQUEST);
+        String url = (String) binding.getCredentials().get("jdbcurl");
+
+        try (Connection connection = getConnection(url)) {
+            try (Statement statement = connection.createStatement()) {
+                ResultSet result = statement.executeQuery("select name from fruit.tree");
+                assertTrue(result.next());
+                assertThat(result.getString(1), is("medjool"));
+            }
+        }
+    }
+
+    @Test
+    public void createServiceInstance_asyncClient_completesInBackground() throws ServiceBrokerException, ServiceInstanceExistsException, InterruptedException {
+        ServiceInstance serviceInstance = databaseCreationService.createServiceInstance(ASYNC_CREATE_REQUEST);
+
+        assertTrue(serviceInstance.isAsync());
+        assertThat(serviceInstance.getServiceInstanceLastOperation().getState(), is(OperationState.IN_PROGRESS));
+        ServiceInstance provisioned = awaitLastOperation();
+        assertThat(provisioned.getServiceInstanceLastOperation().getState(), is(OperationState.SUCCEEDED));
+    }
+
+    @Test
+    public void createServiceInstance_asyncOperationInProgress_fails() throws ServiceBrokerException, ServiceInstanceExistsException, InterruptedException {
+        databaseCreationService.createServiceInstance(ASYNC_CREATE_REQUEST);
+
+        assertThatThrownBy(
+                () -> databaseCreationService.createServiceInstance(ASYNC_CREATE_REQUEST)
+        ).isInstanceOf(ServiceInstanceExistsException.class);
+        awaitLastOperation();
+    }
+
+    @Test
+    public void deleteServiceInstance_asyncClient_instanceIsGoneWhenComplete() throws ServiceBrokerException, ServiceInstanceExistsException, InterruptedException {
+        databaseCreationService.createServiceInstance(CREATE_REQUEST);
+
+        ServiceInstance serviceInstance = databaseCreationService.deleteServiceInstance(ASYNC_DELETE_REQUEST);
+
+        assertTrue(serviceInstance.isAsync());
+        assertNull(awaitLastOperation());
+    }
+
+    private ServiceInstance awaitLastOperation() throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            ServiceInstance serviceInstance = databaseCreationService.getServiceInstance(INSTANCE_ID);
+            if (serviceInstance == null
+                    || serviceInstance.getServiceInstanceLastOperation().getState() != OperationState.IN_PROGRESS) {
+                return serviceInstance;
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError("operation on " + INSTANCE_ID + " did not complete");
+    }
+
     @Test
     public void getServiceInstance_instanceDoesNotExist_returnsNull() throws ServiceBrokerException, ServiceInstanceExistsException {
         ServiceInstance serviceInstance = databaseCreationService.getServiceInstance(INSTANCE_ID);
@@ -117,21 +220,40 @@ public class DatabaseCreationServiceTest {
     }
 
     @Test
-    public void updateServiceInstance_instanceDoesNotExist_throwsUnsupportedException() {
+    public void updateServiceInstance_instanceDoesNotExist_throwsDoesNotExistException() {
         assertThatThrownBy(
                 () -> databaseCreationService.updateServiceInstance(UPDATE_REQUEST)
 
-        ).isInstanceOf(ServiceInstanceUpdateNotSupportedException.class);
+        ).isInstanceOf(ServiceInstanceDoesNotExistException.class);
     }
 
     @Test
-    public void updateServiceInstance_instanceAlreadyExists_throwsUnsupportedException() throws ServiceBrokerException, ServiceInstanceExistsException {
+    public void updateServiceInstance_instanceAlreadyExists_planIsChanged() throws Exception {
         databaseCreationService.createServiceInstance(CREATE_REQUEST);
 
-        assertThatThrownBy(
-                () -> databaseCreationService.updateServiceInstance(UPDATE_REQUEST)
+        ServiceInstance serviceInstance = databaseCreationService.updateServiceInstance(UPDATE_REQUEST);
 
-        ).isInstanceOf(ServiceInstanceUpdateNotSupportedException.class);
+        assertThat(serviceInstance.getPlanId(), is("limited-plan"));
+        assertThat(databaseCreationService.getServiceInstance(INSTANCE_ID).getPlanId(), is("limited-plan"));
+        assertThat(databaseCreationService.getServiceInstance(INSTANCE_ID).getServiceInstanceLastOperation().getState(), is(OperationState.SUCCEEDED));
+    }
+
+    @Test
+    public void updateServiceInstance_planHasResourceProfile_profileIsApplied() throws Exception {
+        assumePostgresProfile(environment);
+        databaseCreationService.createServiceInstance(CREATE_REQUEST);
+        ServiceInstanceBinding binding = databaseBindingService.createServiceInstanceBinding(BIND_REQUEST);
+        String url = (String) binding.getCredentials().get("jdbcurl");
+
+        databaseCreationService.updateServiceInstance(UPDATE_REQUEST);
+
+        try (Connection connection = getConnection(url)) {
+            try (Statement statement = connection.createStatement()) {
+                ResultSet result = statement.executeQuery("show statement_timeout");
+                assertTrue(result.next());
+                assertThat(result.getString(1), is("1s"));
+            }
+        }
     }
 
     @Test
@@ -165,6 +287,27 @@ public class DatabaseCreationServiceTest {
         assertThatThrownBy(() -> getConnection(url)).isInstanceOf(SQLException.class);
     }
 
+    @Test
+    public void createServiceInstance_planHasResourceProfile_profileIsApplied() throws ServiceBrokerException, ServiceInstanceExistsException, ServiceInstanceBindingExistsException, SQLException {
+        assumePostgresProfile(environment);
+        databaseCreationService.createServiceInstance(LIMITED_CREATE_REQUEST);
+        ServiceInstanceBinding binding = databaseBindingService.createServiceInstanceBinding(BIND_REQUEST);
+        String url = (String) binding.getCredentials().get("jdbcurl");
+
+        try (Connection connection = getConnection(url)) {
+            try (Statement statement = connection.createStatement()) {
+                ResultSet result = statement.executeQuery("show statement_timeout");
+                assertTrue(result.next());
+                assertThat(result.getString(1), is("1s"));
+                result = statement.executeQuery("show work_mem");
+                assertTrue(result.next());
+                assertThat(result.getString(1), is("8MB"));
+            }
+            getConnection(url);
+            assertThatThrownBy(() -> getConnection(url)).isInstanceOf(SQLException.class);
+        }
+    }
+
     @SneakyThrows
     private Connection getConnection(String url) {
         return DriverManager.getConnection(url);
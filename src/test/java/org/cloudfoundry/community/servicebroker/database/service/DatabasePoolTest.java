@@ -0,0 +1,102 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import org.cloudfoundry.community.servicebroker.database.jdbc.QueryExecutor;
+import org.cloudfoundry.community.servicebroker.database.repository.ServiceInstanceRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.postgres.PostgresDatabasePool;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.DeleteServiceInstanceRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.env.Environment;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.cloudfoundry.community.servicebroker.database.service.BrokerTestConfig.assumePostgresProfile;
+import static org.cloudfoundry.community.servicebroker.database.service.Exceptions.swallowException;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, classes = BrokerTestConfig.class,
+        properties = {"database.pool.size=2", "database.pool.refill-rate=2"})
+@ActiveProfiles(resolver = BrokerTestConfig.TestProfiles.class)
+public class DatabasePoolTest {
+
+    private static final String INSTANCE_ID = new UUID(8, 1).toString();
+    private static final DeleteServiceInstanceRequest DELETE_REQUEST = new DeleteServiceInstanceRequest(INSTANCE_ID, "", "");
+
+    @Autowired(required = false)
+    private PostgresDatabasePool databasePool;
+
+    @Autowired
+    private DatabaseCreationService databaseCreationService;
+
+    @Autowired
+    private QueryExecutor queryExecutor;
+
+    @Autowired
+    private ServiceInstanceRepository serviceInstanceRepository;
+
+    @Autowired
+    private Environment environment;
+
+    @Before
+    public void assumePostgres() {
+        assumePostgresProfile(environment);
+    }
+
+    @After
+    public void clean() {
+        if (databasePool == null) {
+            return; //the pool only exists on Postgres
+        }
+        swallowException(() -> databaseCreationService.deleteServiceInstance(DELETE_REQUEST));
+        swallowException(() -> queryExecutor.update("DROP ROLE IF EXISTS \"" + INSTANCE_ID + "\""));
+        serviceInstanceRepository.delete(UUID.fromString(INSTANCE_ID)); //left behind by a failed provision
+        for (Optional<String> pooled = databasePool.claim(); pooled.isPresent(); pooled = databasePool.claim()) {
+            queryExecutor.update("DROP DATABASE \"" + pooled.get() + "\"");
+            queryExecutor.update("DROP ROLE \"" + pooled.get() + "\"");
+        }
+    }
+
+    @Test
+    public void refill_poolIsEmpty_poolIsFilled() {
+        databasePool.refill();
+
+        assertThat(databasePool.getStats().get("available"), is(2));
+        assertThat(queryExecutor.select("SELECT 1 FROM pg_database WHERE datname LIKE 'broker\\_pool\\_%'").size() >= 2, is(true));
+    }
+
+    @Test
+    public void createServiceInstance_poolHasDatabase_pooledDatabaseIsClaimed() throws Exception {
+        databasePool.refill();
+        long hits = databasePool.getStats().get("hits").longValue();
+
+        databaseCreationService.createServiceInstance(new CreateServiceInstanceRequest().withServiceInstanceId(INSTANCE_ID));
+
+        assertThat(databasePool.getStats().get("hits").longValue(), is(hits + 1));
+        assertThat(databasePool.getStats().get("available"), is(1));
+        assertThat(queryExecutor.select("SELECT 1 FROM pg_database WHERE datname = ?", INSTANCE_ID).size(), is(1));
+        assertThat(queryExecutor.select("SELECT 1 FROM pg_roles WHERE rolname = ?", INSTANCE_ID).size(), is(1));
+    }
+
+    @Test
+    public void createServiceInstance_claimOfPooledDatabaseFails_nothingIsLeftBehind() throws Exception {
+        databasePool.refill();
+        queryExecutor.update("CREATE ROLE \"" + INSTANCE_ID + "\""); //fails the rename of the pooled role, and the creation after it
+
+        swallowException(() -> databaseCreationService.createServiceInstance(new CreateServiceInstanceRequest().withServiceInstanceId(INSTANCE_ID)));
+
+        assertThat(queryExecutor.select("SELECT 1 FROM pg_database WHERE datname = ?", INSTANCE_ID).size(), is(0));
+        assertThat(queryExecutor.select("SELECT 1 FROM pg_roles WHERE rolname LIKE 'broker\\_pool\\_%'").size(),
+                is(queryExecutor.select("SELECT 1 FROM pg_database WHERE datname LIKE 'broker\\_pool\\_%'").size()));
+    }
+
+}
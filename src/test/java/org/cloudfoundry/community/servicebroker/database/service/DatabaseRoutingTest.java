@@ -0,0 +1,88 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import org.cloudfoundry.community.servicebroker.database.repository.Consts;
+import org.cloudfoundry.community.servicebroker.database.repository.ServiceInstanceRepository;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceBindingRequest;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.DeleteServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
+import org.cloudfoundry.community.servicebroker.model.ServiceInstanceBinding;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.cloudfoundry.community.servicebroker.database.service.Exceptions.swallowException;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, classes = BrokerTestConfig.class,
+        properties = {"database.servers={\"second\": {}}", "database.placement=round-robin"})
+@ActiveProfiles(Consts.H2)
+public class DatabaseRoutingTest {
+
+    private static final List<UUID> INSTANCE_IDS = Arrays.asList(new UUID(5, 1), new UUID(5, 2));
+
+    @Autowired
+    private DatabaseCreationService databaseCreationService;
+
+    @Autowired
+    private DatabaseBindingService databaseBindingService;
+
+    @Autowired
+    private ServiceInstanceRepository serviceInstanceRepository;
+
+    @After
+    public void clean() {
+        INSTANCE_IDS.forEach(id -> swallowException(() -> databaseCreationService.deleteServiceInstance(new DeleteServiceInstanceRequest(id.toString(), "", ""))));
+    }
+
+    @Test
+    public void provision_twoServers_databasesPlacedOnBothAndBindable() throws Exception {
+        Set<String> servers = new HashSet<>();
+        Set<String> jdbcUrls = new HashSet<>();
+        for (UUID id : INSTANCE_IDS) {
+            databaseCreationService.createServiceInstance(new CreateServiceInstanceRequest().withServiceInstanceId(id.toString()));
+            servers.add(serviceInstanceRepository.findServerId(id).get());
+            ServiceInstanceBinding binding = databaseBindingService.createServiceInstanceBinding(new CreateServiceInstanceBindingRequest()
+                    .withServiceInstanceId(id.toString()).withBindingId(new UUID(6, id.getLeastSignificantBits()).toString()));
+            String jdbcUrl = (String) binding.getCredentials().get("jdbcurl");
+            try (Connection connection = DriverManager.getConnection(jdbcUrl)) {
+                assertTrue(connection.isValid(1));
+            }
+            jdbcUrls.add(jdbcUrl);
+        }
+
+        assertThat(servers, is(new HashSet<>(Arrays.asList("default", "second"))));
+        assertTrue(jdbcUrls.stream().anyMatch(url -> url.contains("second_")));
+    }
+
+    @Test
+    public void provisionClaimed_instancesAlreadyPlaced_keepTheirServer() throws Exception {
+        for (UUID id : INSTANCE_IDS) {
+            serviceInstanceRepository.claim(new CreateServiceInstanceRequest().withServiceInstanceId(id.toString()), OperationState.IN_PROGRESS);
+            serviceInstanceRepository.assignServer(id, "second");
+
+            databaseCreationService.provisionClaimed(id, null);
+
+            assertThat(serviceInstanceRepository.findServerId(id).get(), is("second"));
+            ServiceInstanceBinding binding = databaseBindingService.createServiceInstanceBinding(new CreateServiceInstanceBindingRequest()
+                    .withServiceInstanceId(id.toString()).withBindingId(new UUID(6, id.getLeastSignificantBits()).toString()));
+            assertTrue(((String) binding.getCredentials().get("jdbcurl")).contains("second_"));
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class InFlightRequestsTest {
+
+    private final InFlightRequests inFlightRequests = new InFlightRequests();
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void shutdown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    private Future<String> startFirstRequest() throws InterruptedException {
+        Future<String> first = executor.submit(() -> inFlightRequests.run("provision", "id", "plan-a", () -> {
+            started.countDown();
+            release.await();
+            return "created";
+        }, IllegalStateException::new));
+        started.await();
+        return first;
+    }
+
+    @Test
+    public void run_identicalRequestInProgress_getsSameResult() throws Exception {
+        Future<String> first = startFirstRequest();
+        Future<String> second = executor.submit(() -> inFlightRequests.run("provision", "id", "plan-a",
+                () -> "created again", IllegalStateException::new));
+        while (inFlightRequests.getStats().get("provision_coalesced") == null) {
+            Thread.sleep(10);
+        }
+
+        release.countDown();
+
+        assertThat(first.get(10, TimeUnit.SECONDS), is("created"));
+        assertThat(second.get(10, TimeUnit.SECONDS), is("created"));
+        assertThat(inFlightRequests.getStats().get("provision_coalesced"), is(1L));
+    }
+
+    @Test
+    public void run_conflictingRequestInProgress_isRejected() throws Exception {
+        startFirstRequest();
+
+        assertThatThrownBy(() -> inFlightRequests.run("provision", "id", "plan-b", () -> "created", IllegalStateException::new))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(inFlightRequests.getStats().get("provision_conflicts"), is(1L));
+    }
+
+    @Test
+    public void run_requestCompleted_runsAgain() throws Exception {
+        release.countDown();
+        startFirstRequest().get(10, TimeUnit.SECONDS);
+
+        assertThat(inFlightRequests.run("provision", "id", "plan-b", () -> "created again", IllegalStateException::new), is("created again"));
+    }
+
+}
@@ -0,0 +1,119 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import org.cloudfoundry.community.servicebroker.database.jdbc.QueryExecutor;
+import org.cloudfoundry.community.servicebroker.database.repository.ServiceInstanceRepository;
+import org.cloudfoundry.community.servicebroker.database.repository.postgres.PostgresOrphanReconciler;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.env.Environment;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.UUID;
+
+import static org.cloudfoundry.community.servicebroker.database.service.BrokerTestConfig.assumePostgresProfile;
+import static org.cloudfoundry.community.servicebroker.database.service.Exceptions.swallowException;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, classes = BrokerTestConfig.class,
+        properties = {"database.orphans.drop=true", "database.orphans.reconcile-interval=86400000"})
+@ActiveProfiles(resolver = BrokerTestConfig.TestProfiles.class)
+public class OrphanReconcilerTest {
+
+    private static final String ORPHAN_DATABASE = new UUID(16, 1).toString();
+    private static final String ORPHAN_ROLE = new UUID(16, 2).toString();
+    private static final UUID INSTANCE_ID = new UUID(16, 3);
+    private static final String UNREGISTERED_BINDING_ROLE = new UUID(16, 4).toString();
+
+    @Autowired(required = false)
+    private PostgresOrphanReconciler orphanReconciler;
+
+    @Autowired
+    private QueryExecutor queryExecutor;
+
+    @Autowired
+    private ServiceInstanceRepository serviceInstanceRepository;
+
+    @Autowired
+    private Environment environment;
+
+    @Before
+    public void assumePostgres() {
+        assumePostgresProfile(environment);
+    }
+
+    @After
+    public void clean() {
+        if (orphanReconciler == null) {
+            return; //the reconciler only exists on Postgres
+        }
+        swallowException(() -> queryExecutor.update("DROP DATABASE IF EXISTS \"" + ORPHAN_DATABASE + "\""));
+        swallowException(() -> queryExecutor.update("DROP ROLE IF EXISTS \"" + ORPHAN_DATABASE + "\""));
+        swallowException(() -> queryExecutor.update("DROP ROLE IF EXISTS \"" + ORPHAN_ROLE + "\""));
+        swallowException(() -> queryExecutor.update("DROP ROLE IF EXISTS \"" + UNREGISTERED_BINDING_ROLE + "\""));
+        swallowException(() -> queryExecutor.update("DROP ROLE IF EXISTS \"" + INSTANCE_ID + "\""));
+        serviceInstanceRepository.delete(INSTANCE_ID);
+    }
+
+    @Test
+    public void reconcile_orphansSeenOnce_orphansAreReportedAndKept() {
+        createOrphans();
+
+        orphanReconciler.reconcile();
+
+        assertThat(orphanReconciler.getStats().get("databases").longValue() >= 1, is(true));
+        assertThat(orphanReconciler.getStats().get("roles").longValue() >= 1, is(true));
+        assertThat(databaseExists(), is(true));
+        assertThat(roleExists(), is(true));
+    }
+
+    @Test
+    public void reconcile_orphansSeenTwice_orphansAreDropped() {
+        createOrphans();
+        long dropped = orphanReconciler.getStats().get("dropped").longValue();
+
+        orphanReconciler.reconcile();
+        orphanReconciler.reconcile();
+
+        assertThat(databaseExists(), is(false));
+        assertThat(roleExists(), is(false));
+        assertThat(orphanReconciler.getStats().get("dropped").longValue() >= dropped + 2, is(true));
+    }
+
+    @Test
+    public void reconcile_unregisteredBindingOfRegisteredInstanceSeenTwice_roleIsKept() {
+        serviceInstanceRepository.claim(new CreateServiceInstanceRequest("", "", "", "")
+                .withServiceInstanceId(INSTANCE_ID.toString()), OperationState.IN_PROGRESS);
+        queryExecutor.update("CREATE ROLE \"" + INSTANCE_ID + "\"");
+        queryExecutor.update("CREATE ROLE \"" + UNREGISTERED_BINDING_ROLE + "\"");
+        queryExecutor.update("GRANT \"" + INSTANCE_ID + "\" TO \"" + UNREGISTERED_BINDING_ROLE + "\"");
+
+        orphanReconciler.reconcile();
+        orphanReconciler.reconcile();
+
+        assertThat(queryExecutor.select("SELECT 1 FROM pg_roles WHERE rolname = ?", UNREGISTERED_BINDING_ROLE).size(), is(1));
+    }
+
+    private void createOrphans() {
+        queryExecutor.update("CREATE ROLE \"" + ORPHAN_DATABASE + "\"");
+        queryExecutor.update("CREATE DATABASE \"" + ORPHAN_DATABASE + "\" OWNER \"" + ORPHAN_DATABASE + "\"");
+        queryExecutor.update("CREATE ROLE \"" + ORPHAN_ROLE + "\"");
+    }
+
+    private boolean databaseExists() {
+        return !queryExecutor.select("SELECT 1 FROM pg_database WHERE datname = ?", ORPHAN_DATABASE).isEmpty();
+    }
+
+    private boolean roleExists() {
+        return !queryExecutor.select("SELECT 1 FROM pg_roles WHERE rolname = ?", ORPHAN_ROLE).isEmpty();
+    }
+
+}
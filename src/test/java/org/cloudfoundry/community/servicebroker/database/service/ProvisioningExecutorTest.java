@@ -0,0 +1,51 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ProvisioningExecutorTest {
+
+    @Test
+    public void destroy_operationQueuedPastTimeout_isAbandoned() throws Exception {
+        ProvisioningExecutor executor = new ProvisioningExecutor(1, 10, false, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean runningAbandoned = new AtomicBoolean();
+        AtomicBoolean queuedAbandoned = new AtomicBoolean();
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, () -> runningAbandoned.set(true));
+        executor.execute(() -> {
+        }, () -> queuedAbandoned.set(true));
+        started.await();
+
+        executor.destroy();
+
+        assertThat(queuedAbandoned.get(), is(true));
+        assertThat(runningAbandoned.get(), is(false));
+    }
+
+    @Test
+    public void destroy_operationsDoneWithinTimeout_noneAbandoned() throws Exception {
+        ProvisioningExecutor executor = new ProvisioningExecutor(1, 10, false, 10);
+        AtomicBoolean ran = new AtomicBoolean();
+        AtomicBoolean abandoned = new AtomicBoolean();
+        executor.execute(() -> ran.set(true), () -> abandoned.set(true));
+
+        executor.destroy();
+
+        assertThat(ran.get(), is(true));
+        assertThat(abandoned.get(), is(false));
+    }
+
+}
@@ -0,0 +1,166 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import org.cloudfoundry.community.servicebroker.database.jdbc.QueryExecutor;
+import org.cloudfoundry.community.servicebroker.database.repository.Consts;
+import org.cloudfoundry.community.servicebroker.database.repository.ServiceInstanceRepository;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.OperationState;
+import org.cloudfoundry.community.servicebroker.model.ServiceInstanceLastOperation;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, classes = BrokerTestConfig.class,
+        properties = "database.registry.cache.ttl=3600")
+@ActiveProfiles(Consts.H2)
+public class ServiceInstanceRepositoryTest {
+
+    private static final UUID INSTANCE_ID = new UUID(9, 1);
+    private static final CreateServiceInstanceRequest CREATE_REQUEST
+            = new CreateServiceInstanceRequest("", "", "", "").withServiceInstanceId(INSTANCE_ID.toString());
+
+    @Autowired
+    private ServiceInstanceRepository serviceInstanceRepository;
+
+    @After
+    public void clean() {
+        serviceInstanceRepository.delete(INSTANCE_ID);
+    }
+
+    private long cacheHits() {
+        return serviceInstanceRepository.getStats().get("hits").longValue();
+    }
+
+    @Test
+    public void findServiceInstance_foundBefore_isCached() {
+        serviceInstanceRepository.claim(CREATE_REQUEST, OperationState.SUCCEEDED);
+        serviceInstanceRepository.findServiceInstance(INSTANCE_ID);
+        long hits = cacheHits();
+
+        assertThat(serviceInstanceRepository.findServiceInstance(INSTANCE_ID).isPresent(), is(true));
+
+        assertThat(cacheHits(), is(hits + 1));
+    }
+
+    @Test
+    public void claim_absenceIsCached_instanceIsFound() {
+        assertThat(serviceInstanceRepository.findServiceInstance(INSTANCE_ID).isPresent(), is(false));
+
+        serviceInstanceRepository.claim(CREATE_REQUEST, OperationState.SUCCEEDED);
+
+        assertThat(serviceInstanceRepository.findServiceInstance(INSTANCE_ID).isPresent(), is(true));
+    }
+
+    @Test
+    public void startOperation_instanceIsCached_operationIsInProgress() {
+        serviceInstanceRepository.claim(CREATE_REQUEST, OperationState.SUCCEEDED);
+        assertThat(serviceInstanceRepository.findServiceInstance(INSTANCE_ID).get().getServiceInstanceLastOperation().getState(),
+                is(OperationState.SUCCEEDED));
+
+        assertThat(serviceInstanceRepository.startOperation(INSTANCE_ID, ServiceInstanceRepository.DEPROVISION), is(true));
+
+        assertThat(serviceInstanceRepository.findServiceInstance(INSTANCE_ID).get().getServiceInstanceLastOperation().getState(),
+                is(OperationState.IN_PROGRESS));
+    }
+
+    @Test
+    public void delete_instanceIsCached_instanceIsNotFound() {
+        serviceInstanceRepository.claim(CREATE_REQUEST, OperationState.SUCCEEDED);
+        assertThat(serviceInstanceRepository.findServiceInstance(INSTANCE_ID).isPresent(), is(true));
+
+        serviceInstanceRepository.delete(INSTANCE_ID);
+
+        assertThat(serviceInstanceRepository.findServiceInstance(INSTANCE_ID).isPresent(), is(false));
+    }
+
+    @Test
+    public void failStaleOperations_operationStartedBefore_isFailed() {
+        serviceInstanceRepository.claim(CREATE_REQUEST, OperationState.IN_PROGRESS);
+        serviceInstanceRepository.findServiceInstance(INSTANCE_ID);
+
+        assertThat(serviceInstanceRepository.failStaleOperations(Instant.now().plusSeconds(1)) >= 1, is(true));
+
+        assertThat(serviceInstanceRepository.findServiceInstance(INSTANCE_ID).get().getServiceInstanceLastOperation().getState(),
+                is(OperationState.FAILED));
+        assertThat(serviceInstanceRepository.startOperation(INSTANCE_ID, ServiceInstanceRepository.DEPROVISION), is(true));
+    }
+
+    @Test
+    public void failStaleOperations_operationStartedAfter_staysInProgress() {
+        serviceInstanceRepository.claim(CREATE_REQUEST, OperationState.IN_PROGRESS);
+
+        serviceInstanceRepository.failStaleOperations(Instant.now().minusSeconds(3600));
+
+        assertThat(serviceInstanceRepository.findServiceInstance(INSTANCE_ID).get().getServiceInstanceLastOperation().getState(),
+                is(OperationState.IN_PROGRESS));
+    }
+
+    @Test
+    public void completeOperation_descriptionLongerThanColumn_isTruncated() {
+        serviceInstanceRepository.claim(CREATE_REQUEST, OperationState.IN_PROGRESS);
+        String description = String.join("", Collections.nCopies(5000, "x"));
+
+        serviceInstanceRepository.completeOperation(INSTANCE_ID, ServiceInstanceRepository.PROVISION, OperationState.FAILED, description);
+
+        ServiceInstanceLastOperation lastOperation = serviceInstanceRepository.findServiceInstance(INSTANCE_ID).get().getServiceInstanceLastOperation();
+        assertThat(lastOperation.getState(), is(OperationState.FAILED));
+        assertThat(lastOperation.getDescription().length(), is(1024));
+    }
+
+    @Test
+    public void claim_uniqueViolationWrappedInAnotherException_isNotClaimed() {
+        QueryExecutor queryExecutor = new QueryExecutor("jdbc:h2:mem:unused") {
+            @Override
+            public int update(String query, Object... parameters) {
+                throw new IllegalStateException(new SQLException("duplicate key", "23505"));
+            }
+        };
+
+        assertThat(new ServiceInstanceRepository(queryExecutor, 10, 30).claim(CREATE_REQUEST, OperationState.IN_PROGRESS), is(false));
+    }
+
+    @Test
+    public void claim_concurrently_exactlyOneClaimSucceeds() throws Exception {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        List<Future<Boolean>> claims = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                claims.add(executor.submit(() -> {
+                    barrier.await();
+                    return serviceInstanceRepository.claim(CREATE_REQUEST, OperationState.IN_PROGRESS);
+                }));
+            }
+            int succeeded = 0;
+            for (Future<Boolean> claim : claims) {
+                succeeded += claim.get(30, TimeUnit.SECONDS) ? 1 : 0;
+            }
+
+            assertThat(succeeded, is(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
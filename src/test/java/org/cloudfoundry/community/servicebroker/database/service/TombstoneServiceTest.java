@@ -0,0 +1,95 @@
+package org.cloudfoundry.community.servicebroker.database.service;
+
+import org.cloudfoundry.community.servicebroker.database.repository.Consts;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceBindingRequest;
+import org.cloudfoundry.community.servicebroker.model.CreateServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.DeleteServiceInstanceBindingRequest;
+import org.cloudfoundry.community.servicebroker.model.DeleteServiceInstanceRequest;
+import org.cloudfoundry.community.servicebroker.model.ServiceInstance;
+import org.cloudfoundry.community.servicebroker.model.ServiceInstanceBinding;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.env.Environment;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.UUID;
+
+import static org.cloudfoundry.community.servicebroker.database.service.BrokerTestConfig.assumePostgresProfile;
+import static org.cloudfoundry.community.servicebroker.database.service.Exceptions.swallowException;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, classes = BrokerTestConfig.class,
+        properties = {"database.tombstones.enabled=#{environment.acceptsProfiles('" + Consts.POSTGRES + "')}", //tombstones are rejected on startup on H2
+                "database.tombstones.undo-window=0"})
+@ActiveProfiles(resolver = BrokerTestConfig.TestProfiles.class)
+public class TombstoneServiceTest {
+
+    private static final UUID INSTANCE_ID = new UUID(7, 1);
+    private static final DeleteServiceInstanceRequest DELETE_REQUEST = new DeleteServiceInstanceRequest(INSTANCE_ID.toString(), "", "");
+
+    @Autowired
+    private DatabaseCreationService databaseCreationService;
+
+    @Autowired
+    private DatabaseBindingService databaseBindingService;
+
+    @Autowired
+    private TombstoneService tombstoneService;
+
+    @Autowired
+    private Environment environment;
+
+    @Before
+    public void assumePostgres() {
+        assumePostgresProfile(environment);
+    }
+
+    @After
+    public void clean() throws InterruptedException {
+        swallowException(() -> databaseCreationService.deleteServiceInstance(DELETE_REQUEST));
+        Thread.sleep(10);
+        tombstoneService.dropExpired();
+    }
+
+    @Test
+    public void restore_instanceDeprovisioned_databaseIsBack() throws Exception {
+        databaseCreationService.createServiceInstance(new CreateServiceInstanceRequest().withServiceInstanceId(INSTANCE_ID.toString()));
+        databaseCreationService.deleteServiceInstance(DELETE_REQUEST);
+        assertNull(databaseCreationService.getServiceInstance(INSTANCE_ID.toString()));
+
+        ServiceInstance restored = tombstoneService.restore(INSTANCE_ID).get();
+
+        assertThat(restored.getServiceInstanceId(), is(INSTANCE_ID.toString()));
+        String bindingId = new UUID(7, 2).toString();
+        ServiceInstanceBinding binding = databaseBindingService.createServiceInstanceBinding(new CreateServiceInstanceBindingRequest()
+                .withServiceInstanceId(INSTANCE_ID.toString()).withBindingId(bindingId));
+        try (Connection connection = DriverManager.getConnection((String) binding.getCredentials().get("jdbcurl"))) {
+            assertTrue(connection.isValid(1));
+        }
+        databaseBindingService.deleteServiceInstanceBinding(new DeleteServiceInstanceBindingRequest(bindingId, restored, "", ""));
+    }
+
+    @Test
+    public void dropExpired_undoWindowElapsed_tombstoneIsDropped() throws Exception {
+        databaseCreationService.createServiceInstance(new CreateServiceInstanceRequest().withServiceInstanceId(INSTANCE_ID.toString()));
+        databaseCreationService.deleteServiceInstance(DELETE_REQUEST);
+        Thread.sleep(10);
+
+        tombstoneService.dropExpired();
+
+        assertThat(tombstoneService.getStats().get("pending"), is(0L));
+        assertThat(tombstoneService.restore(INSTANCE_ID).isPresent(), is(false));
+    }
+
+}
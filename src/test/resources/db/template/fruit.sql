@@ -0,0 +1,4 @@
+CREATE SCHEMA fruit;
+CREATE TABLE fruit.tree (name varchar(36) not null);
+INSERT INTO fruit.tree VALUES ('medjool');
+GRANT SELECT ON fruit.tree TO PUBLIC;